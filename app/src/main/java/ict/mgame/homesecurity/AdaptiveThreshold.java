@@ -0,0 +1,100 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Tracks the mean and variance of a motion score in O(1) and derives a trigger threshold
+ * a fixed number of standard deviations above that baseline, never below a fixed floor.
+ * Feed it the same quantity the threshold is compared against.
+ * Early samples are averaged like Welford's algorithm; after that the statistics
+ * decay exponentially so the baseline follows day/night noise changes.
+ */
+public class AdaptiveThreshold {
+    public static final double DEFAULT_SMOOTHING = 0.02;
+    public static final double DEFAULT_Z_SCORE = 4.0;
+    public static final double DEFAULT_MIN_EXCESS = 8.0;
+    public static final int DEFAULT_WARMUP_SAMPLES = 30;
+
+    private final double initialThreshold;
+    private final double minThreshold;
+    private final double smoothing;
+    private final double zScore;
+    private final double minExcess;
+    private final int warmupSamples;
+
+    private long count = 0;
+    private double mean = 0.0;
+    private double variance = 0.0;
+
+    // Starts at initialThreshold and never drops below it
+    public AdaptiveThreshold(double initialThreshold) {
+        this(initialThreshold, initialThreshold, DEFAULT_SMOOTHING, DEFAULT_Z_SCORE, DEFAULT_MIN_EXCESS,
+                DEFAULT_WARMUP_SAMPLES);
+    }
+
+    /**
+     * @param initialThreshold threshold used until {@code warmupSamples} scores were seen
+     * @param minThreshold     lowest threshold the baseline may derive, so a very quiet scene
+     *                         does not make local noise trigger
+     * @param smoothing        EWMA weight of a new score once warmed up
+     * @param zScore           standard deviations above the mean needed to trigger
+     * @param minExcess        minimum distance between the baseline mean and the threshold
+     * @param warmupSamples    scores to collect before the adaptive threshold takes over
+     */
+    public AdaptiveThreshold(double initialThreshold, double minThreshold, double smoothing, double zScore,
+                             double minExcess, int warmupSamples) {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("Smoothing must be in (0, 1]: " + smoothing);
+        }
+        this.initialThreshold = initialThreshold;
+        this.minThreshold = minThreshold;
+        this.smoothing = smoothing;
+        this.zScore = zScore;
+        this.minExcess = minExcess;
+        this.warmupSamples = warmupSamples;
+    }
+
+    /**
+     * Feeds one score into the baseline. Scores are clamped to the current
+     * threshold first, so real motion only nudges the baseline instead of dragging it up,
+     * while a lasting rise in noise (e.g. at night) is still learned over time.
+     */
+    public void update(double score) {
+        double sample = Math.min(score, getThreshold());
+        count++;
+        double weight = Math.max(smoothing, 1.0 / count);
+        double diff = sample - mean;
+        double increment = weight * diff;
+        mean += increment;
+        variance = (1.0 - weight) * (variance + diff * increment);
+    }
+
+    public double getThreshold() {
+        if (count < warmupSamples) {
+            return initialThreshold;
+        }
+        return Math.max(minThreshold, mean + Math.max(zScore * getStandardDeviation(), minExcess));
+    }
+
+    public boolean isWarmedUp() {
+        return count >= warmupSamples;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(variance);
+    }
+
+    // Distance of score from the baseline in standard deviations
+    public double zScoreOf(double score) {
+        double sd = getStandardDeviation();
+        return sd == 0 ? 0 : (score - mean) / sd;
+    }
+
+    public void reset() {
+        count = 0;
+        mean = 0.0;
+        variance = 0.0;
+    }
+}
@@ -0,0 +1,92 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Decides when the bridge's buzzer sounds. Each incident start sounds it for one pulse, and
+ * motion resuming after the scene went quiet re-arms it for another; continuous motion does not
+ * keep it on. Incidents from all sources are counted, so the end of one does not silence a
+ * pulse while another is still open. Time is passed in by the caller, which must call
+ * {@link #onTimer} once {@link #getOffAtMillis()} is reached. Not thread safe.
+ */
+public class AlarmController {
+    // The original fixed pulse length
+    public static final long DEFAULT_PULSE_MILLIS = 3000;
+
+    public interface AlarmOutput {
+        void setAlarm(boolean on);
+    }
+
+    private final AlarmOutput output;
+    private long pulseMillis = DEFAULT_PULSE_MILLIS;
+    private boolean on;
+    private int openIncidents;
+    private long offAtMillis;
+
+    public AlarmController(AlarmOutput output) {
+        this.output = output;
+    }
+
+    public void setPulseMillis(long pulseMillis) {
+        if (pulseMillis <= 0) {
+            throw new IllegalArgumentException("Pulse must be positive: " + pulseMillis);
+        }
+        this.pulseMillis = pulseMillis;
+    }
+
+    public boolean isOn() {
+        return on;
+    }
+
+    // When the current pulse ends; only meaningful while on
+    public long getOffAtMillis() {
+        return offAtMillis;
+    }
+
+    public int getOpenIncidents() {
+        return openIncidents;
+    }
+
+    public void onIncidentStarted(long nowMillis) {
+        openIncidents++;
+        pulse(nowMillis);
+    }
+
+    public void onIncidentResumed(long nowMillis) {
+        pulse(nowMillis);
+    }
+
+    public void onIncidentEnded(long nowMillis) {
+        if (openIncidents > 0) {
+            openIncidents--;
+        }
+        if (openIncidents == 0) {
+            turnOff();
+        }
+    }
+
+    public void onTimer(long nowMillis) {
+        if (on && nowMillis >= offAtMillis) {
+            turnOff();
+        }
+    }
+
+    // Silences the alarm right away, e.g. when the screen goes away
+    public void stop() {
+        openIncidents = 0;
+        turnOff();
+    }
+
+    private void pulse(long nowMillis) {
+        offAtMillis = nowMillis + pulseMillis;
+        if (!on) {
+            on = true;
+            output.setAlarm(true);
+        }
+    }
+
+    private void turnOff() {
+        if (on) {
+            on = false;
+            output.setAlarm(false);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ict.mgame.homesecurity;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency histograms and frame counters for the analysis pipeline. Frames dropped
+ * before reaching the analyzer (e.g. by a keep-only-latest backpressure strategy) are never
+ * seen, so they are estimated from gaps in the delivered frame timestamps. Counters and
+ * histograms may be read from any thread; the frame callbacks belong to the analysis thread.
+ */
+public class AnalysisMetrics {
+    // A gap longer than this many nominal frame intervals means frames went missing
+    private static final double DROP_GAP_RATIO = 1.5;
+
+    public enum Stage {
+        // Reading the luma grid out of the image plane and building its pyramid
+        SAMPLE,
+        // Tile differencing against the reference
+        SCORE,
+        // Lighting check, windowing, blob filtering and reference update
+        DECISION,
+        // Listeners, pre-motion buffer, incident tracking and rate control
+        DISPATCH,
+        // Whole analyzer callback for frames that were analysed
+        TOTAL,
+        // Frame timestamp to the end of its analysis: how far the analyzer runs behind the camera
+        LAG
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong analysed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long lastTimestampNanos = -1;
+    private double frameIntervalNanos;
+
+    public AnalysisMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    // Every frame handed to the analyzer, in delivery order
+    public void onFrameDelivered(long timestampNanos) {
+        delivered.incrementAndGet();
+        long last = lastTimestampNanos;
+        lastTimestampNanos = timestampNanos;
+        if (last < 0 || timestampNanos <= last) return;
+        long gap = timestampNanos - last;
+        if (frameIntervalNanos == 0) {
+            frameIntervalNanos = gap;
+        } else if (gap > frameIntervalNanos * DROP_GAP_RATIO) {
+            dropped.addAndGet(Math.round(gap / frameIntervalNanos) - 1);
+            // Drift slowly so a lasting frame rate drop (e.g. low light) stops counting as drops
+            frameIntervalNanos += (gap - frameIntervalNanos) / 32;
+        } else {
+            frameIntervalNanos += (gap - frameIntervalNanos) / 8;
+        }
+    }
+
+    public void onFrameAnalysed() {
+        analysed.incrementAndGet();
+    }
+
+    // Delivered but deliberately not analysed, e.g. by the idle-rate governor
+    public void onFrameSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    // End of analysis for a frame taken at timestampNanos; nowNanos must use the same clock
+    public void onFrameFinished(long timestampNanos, long nowNanos) {
+        record(Stage.LAG, Math.max(0, nowNanos - timestampNanos));
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public long getDeliveredFrames() {
+        return delivered.get();
+    }
+
+    public long getAnalysedFrames() {
+        return analysed.get();
+    }
+
+    public long getSkippedFrames() {
+        return skipped.get();
+    }
+
+    public long getDroppedFrames() {
+        return dropped.get();
+    }
+
+    // Resets counters and histograms; the frame interval estimate is kept
+    public void reset() {
+        delivered.set(0);
+        analysed.set(0);
+        skipped.set(0);
+        dropped.set(0);
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Writes a plain-text report: the frame counters, then one line per stage (and the lag)
+     * with count, mean, p50, p90, p99 and max in microseconds.
+     */
+    public void dump(Writer out) throws IOException {
+        out.write(String.format(Locale.US, "frames delivered=%d analysed=%d skipped=%d dropped=%d%n",
+                getDeliveredFrames(), getAnalysedFrames(), getSkippedFrames(), getDroppedFrames()));
+        out.write(String.format(Locale.US, "%-9s %8s %9s %9s %9s %9s %9s%n",
+                "stage", "count", "mean_us", "p50_us", "p90_us", "p99_us", "max_us"));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = getHistogram(stage);
+            out.write(String.format(Locale.US, "%-9s %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    stage.name().toLowerCase(Locale.US), h.getCount(), h.getMeanNanos() / 1000,
+                    h.getPercentileNanos(50) / 1000.0, h.getPercentileNanos(90) / 1000.0,
+                    h.getPercentileNanos(99) / 1000.0, h.getMaxNanos() / 1000.0));
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,43 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Named ImageAnalysis configurations: the resolution requested from CameraX and the
+ * sampling grid the motion engine uses on it. Grids keep the frame's aspect ratio and
+ * split evenly into {@link TileMotionGrid#DEFAULT_TILE_COLS} x {@link TileMotionGrid#DEFAULT_TILE_ROWS} tiles.
+ */
+public enum AnalysisProfile {
+    // Cheapest; fine for a small room watched from close by
+    LOW_POWER(320, 240, 64, 48),
+    BALANCED(640, 480, LumaSampler.DEFAULT_GRID_COLS, LumaSampler.DEFAULT_GRID_ROWS),
+    // Small or distant subjects
+    LONG_RANGE(1280, 720, 256, 144);
+
+    private final int width;
+    private final int height;
+    private final int gridCols;
+    private final int gridRows;
+
+    AnalysisProfile(int width, int height, int gridCols, int gridRows) {
+        this.width = width;
+        this.height = height;
+        this.gridCols = gridCols;
+        this.gridRows = gridRows;
+    }
+
+    // Requested analysis resolution; CameraX falls back to the closest supported size
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getGridCols() {
+        return gridCols;
+    }
+
+    public int getGridRows() {
+        return gridRows;
+    }
+}
@@ -0,0 +1,148 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Decides which delivered frames are worth analysing. An empty scene is analysed at a low
+ * idle rate; as soon as any tile's score rises towards the motion threshold every frame is
+ * analysed, and after a quiet period the rate halves step by step back to idle.
+ * Used from the analysis thread only, apart from the configuration setters.
+ */
+public class AnalysisRateGovernor {
+    public static final double DEFAULT_IDLE_FPS = 2.0;
+    public static final long DEFAULT_QUIET_NANOS = 10_000_000_000L;
+    public static final long DEFAULT_DECAY_STEP_NANOS = 1_000_000_000L;
+    // A tile above this share of the motion threshold counts as a rising score
+    public static final double DEFAULT_RISE_RATIO = 0.5;
+    // First interval after leaving full rate, doubled every decay step
+    private static final long FIRST_DECAY_INTERVAL_NANOS = 66_000_000L;
+
+    public enum State {
+        // Analysing every delivered frame
+        ACTIVE,
+        // Quiet, stepping the interval up towards the idle rate
+        DECAYING,
+        // Analysing at the idle rate
+        IDLE
+    }
+
+    private volatile long idleIntervalNanos = fpsToInterval(DEFAULT_IDLE_FPS);
+    private volatile long quietNanos = DEFAULT_QUIET_NANOS;
+    private volatile long decayStepNanos = DEFAULT_DECAY_STEP_NANOS;
+    private volatile double riseRatio = DEFAULT_RISE_RATIO;
+
+    private State state = State.IDLE;
+    private long intervalNanos = idleIntervalNanos;
+    private long lastAnalysedNanos;
+    private long lastRiseNanos;
+    private long lastStepNanos;
+    private boolean hasAnalysed = false;
+    private long analysedFrames;
+    private long skippedFrames;
+
+    public void setIdleFps(double fps) {
+        if (!(fps > 0)) {
+            throw new IllegalArgumentException("Idle rate must be positive: " + fps);
+        }
+        idleIntervalNanos = fpsToInterval(fps);
+    }
+
+    // How long scores must stay low before the rate starts decaying, and how often it halves
+    public void setDecay(long quietNanos, long decayStepNanos) {
+        if (quietNanos < 0 || decayStepNanos <= 0) {
+            throw new IllegalArgumentException("Invalid decay timings");
+        }
+        this.quietNanos = quietNanos;
+        this.decayStepNanos = decayStepNanos;
+    }
+
+    public void setRiseRatio(double riseRatio) {
+        if (!(riseRatio > 0)) {
+            throw new IllegalArgumentException("Rise ratio must be positive: " + riseRatio);
+        }
+        this.riseRatio = riseRatio;
+    }
+
+    /**
+     * Returns whether the frame captured at {@code timestampNanos} should be analysed, and
+     * counts it as analysed or skipped accordingly.
+     */
+    public boolean shouldAnalyze(long timestampNanos) {
+        if (state == State.IDLE) {
+            intervalNanos = idleIntervalNanos;
+        }
+        if (hasAnalysed && timestampNanos - lastAnalysedNanos < intervalNanos) {
+            skippedFrames++;
+            return false;
+        }
+        hasAnalysed = true;
+        lastAnalysedNanos = timestampNanos;
+        analysedFrames++;
+        return true;
+    }
+
+    // Feeds back the result of an analysed frame
+    public void onResult(MotionResult result) {
+        long now = result.getTimestampNanos();
+        boolean rising = result.isMotionDetected()
+                || (result.isScored() && result.getPeakTileScore() > result.getThreshold() * riseRatio);
+        if (rising) {
+            state = State.ACTIVE;
+            intervalNanos = 0;
+            lastRiseNanos = now;
+            return;
+        }
+        switch (state) {
+            case ACTIVE:
+                if (now - lastRiseNanos >= quietNanos) {
+                    state = State.DECAYING;
+                    intervalNanos = Math.min(FIRST_DECAY_INTERVAL_NANOS, idleIntervalNanos);
+                    lastStepNanos = now;
+                }
+                break;
+            case DECAYING:
+                if (now - lastStepNanos >= decayStepNanos) {
+                    intervalNanos *= 2;
+                    lastStepNanos = now;
+                    if (intervalNanos >= idleIntervalNanos) {
+                        state = State.IDLE;
+                        intervalNanos = idleIntervalNanos;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Back to idle, e.g. after the camera or sensor was switched off
+    public void reset() {
+        state = State.IDLE;
+        intervalNanos = idleIntervalNanos;
+        hasAnalysed = false;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // Minimum time between analysed frames; 0 while active
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    // Upper bound on the analysis rate; infinite while active
+    public double getTargetFps() {
+        return intervalNanos == 0 ? Double.POSITIVE_INFINITY : 1e9 / intervalNanos;
+    }
+
+    public long getAnalysedFrames() {
+        return analysedFrames;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    private static long fpsToInterval(double fps) {
+        return (long) (1e9 / fps);
+    }
+}
@@ -0,0 +1,93 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Exponential moving average of the sampled luma grid, kept in 8.8 fixed point and
+ * updated in place. {@link #getReference()} exposes the background rounded back to
+ * bytes so it can be scored exactly like a previous frame.
+ */
+public class BackgroundModel {
+    public static final float DEFAULT_LEARNING_RATE = 0.05f;
+
+    private static final int FRACTION_BITS = 8;
+    private static final int RATE_BITS = 12;
+
+    private int[] background = new int[0];
+    private byte[] reference = new byte[0];
+    private ByteBuffer referenceView = ByteBuffer.wrap(reference);
+    private boolean initialized = false;
+    private volatile int rateQ12;
+
+    public BackgroundModel() {
+        this(DEFAULT_LEARNING_RATE);
+    }
+
+    public BackgroundModel(float learningRate) {
+        setLearningRate(learningRate);
+    }
+
+    /**
+     * Fraction of each new frame blended into the background, in (0, 1].
+     */
+    public void setLearningRate(float learningRate) {
+        if (!(learningRate > 0f && learningRate <= 1f)) {
+            throw new IllegalArgumentException("Learning rate must be in (0, 1]: " + learningRate);
+        }
+        rateQ12 = Math.max(1, Math.round(learningRate * (1 << RATE_BITS)));
+    }
+
+    public float getLearningRate() {
+        return rateQ12 / (float) (1 << RATE_BITS);
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    // Background rounded to 8 bits, or null until the first frame was seen
+    public byte[] getReference() {
+        return initialized ? reference : null;
+    }
+
+    public ByteBuffer getReferenceView() {
+        return initialized ? referenceView : null;
+    }
+
+    /**
+     * Blends {@code frame} into the background in place. The first frame after a reset
+     * (or a size change) seeds the model directly.
+     */
+    public void update(byte[] frame) {
+        int length = frame.length;
+        if (background.length != length) {
+            background = new int[length];
+            reference = new byte[length];
+            referenceView = ByteBuffer.wrap(reference).order(ByteOrder.nativeOrder());
+            initialized = false;
+        }
+        if (!initialized) {
+            for (int i = 0; i < length; i++) {
+                background[i] = (frame[i] & 0xFF) << FRACTION_BITS;
+                reference[i] = frame[i];
+            }
+            initialized = true;
+            return;
+        }
+
+        int rate = rateQ12;
+        int round = 1 << (FRACTION_BITS - 1);
+        for (int i = 0; i < length; i++) {
+            int bg = background[i];
+            int delta = ((frame[i] & 0xFF) << FRACTION_BITS) - bg;
+            bg += (delta * rate) >> RATE_BITS;
+            background[i] = bg;
+            reference[i] = (byte) ((bg + round) >> FRACTION_BITS);
+        }
+    }
+
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -9,12 +9,16 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BluetoothManager {
     private static final String TAG = "BluetoothManager";
@@ -25,6 +29,11 @@ public class BluetoothManager {
     private BluetoothSocket bluetoothSocket;
     private ConnectedThread connectedThread;
     private BluetoothListener listener;
+    private volatile RemoteMotionDetector remoteMotionDetector;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final RawFrameDecoder frameDecoder = new RawFrameDecoder(bitmap -> {
+        if (listener != null) listener.onImageReceived(bitmap);
+    });
     private boolean isConnected = false;
     private boolean isConnecting = false;
 
@@ -33,6 +42,7 @@ public class BluetoothManager {
         void onConnected(String deviceName);
         void onConnectionFailed();
         void onDisconnected();
+        // Raw camera frames reuse their bitmap once the next image has been received
         void onImageReceived(Bitmap bitmap);
         void onEnvDataReceived(float temp, float hum, int sound, int light);
         void onMessageReceived(String message);
@@ -53,6 +63,11 @@ public class BluetoothManager {
         this.listener = listener;
     }
 
+    // Receives every raw OV7670 frame on the connection thread, before it is converted for display
+    public void setRemoteMotionDetector(RemoteMotionDetector detector) {
+        this.remoteMotionDetector = detector;
+    }
+
     public boolean isBluetoothEnabled() {
         return bluetoothAdapter != null && bluetoothAdapter.isEnabled();
     }
@@ -73,7 +88,7 @@ public class BluetoothManager {
     public void connect(BluetoothDevice device) {
         isConnecting = true;
         if (listener != null) {
-            new Handler(Looper.getMainLooper()).post(() -> listener.onConnecting());
+            mainHandler.post(() -> listener.onConnecting());
         }
         new Thread(() -> {
             try {
@@ -86,7 +101,7 @@ public class BluetoothManager {
                     Log.e(TAG, "Permission missing during connection", se);
                     isConnecting = false;
                     if (listener != null) {
-                        new Handler(Looper.getMainLooper()).post(() -> listener.onConnectionFailed());
+                        mainHandler.post(() -> listener.onConnectionFailed());
                     }
                     return;
                 }
@@ -102,7 +117,7 @@ public class BluetoothManager {
                         Log.w(TAG, "Cannot get device name", e);
                     }
                     String finalName = name;
-                    new Handler(Looper.getMainLooper()).post(() -> {
+                    mainHandler.post(() -> {
                         if (listener != null) listener.onConnected(finalName);
                     });
                 }
@@ -115,7 +130,7 @@ public class BluetoothManager {
                 isConnected = false;
                 isConnecting = false;
                 if (listener != null) {
-                    new Handler(Looper.getMainLooper()).post(() -> {
+                    mainHandler.post(() -> {
                         if (listener != null) listener.onConnectionFailed();
                     });
                 }
@@ -169,13 +184,35 @@ public class BluetoothManager {
         }
     }
 
-    private class ConnectedThread extends Thread {
+    private class ConnectedThread extends Thread implements SerialPacketParser.PacketListener {
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
         private volatile boolean isRunning = true;
-        private long lastEnvRequestTime = 0;
         private long envRequestInterval = 300; // Default 300ms
-        private float smoothedSound = 0; // For smoothing sound data
+        // Gives the bridge time to settle after connecting before the first ENV request
+        private static final long FIRST_ENV_REQUEST_DELAY_MS = 1000;
+        // Sends the periodic ENV requests so the reader only wakes up when bytes arrive
+        private final ScheduledExecutorService envScheduler = Executors.newSingleThreadScheduledExecutor();
+        private ScheduledFuture<?> envRequests;
+        // Locks of their own: a Thread's monitor is also used by join()
+        private final Object envLock = new Object();
+        private final Object writeLock = new Object();
+        private final EnvLineParser envParser = new EnvLineParser();
+        private final EnvLineParser.Reading envReading = new EnvLineParser.Reading();
+        // Written by this thread, read by envUpdate on the main thread
+        private volatile float smoothedSound = 0; // For smoothing sound data
+        private volatile float lastTemp;
+        private volatile float lastHum;
+        private volatile int lastLight;
+        // Set while envUpdate is queued, so a busy main thread gets one update with the latest values
+        private final AtomicBoolean envUpdatePosted = new AtomicBoolean();
+        private final Runnable envUpdate = () -> {
+            envUpdatePosted.set(false);
+            if (listener != null) {
+                listener.onEnvDataReceived(lastTemp, lastHum, (int) smoothedSound, lastLight);
+            }
+        };
+        private final SerialPacketParser parser = new SerialPacketParser(this);
 
         public ConnectedThread(BluetoothSocket socket) {
             InputStream tmpIn = null;
@@ -191,286 +228,118 @@ public class BluetoothManager {
         }
 
         public void setEnvRequestInterval(long interval) {
-            this.envRequestInterval = interval;
+            synchronized (envLock) {
+                this.envRequestInterval = interval;
+                if (envRequests != null) {
+                    envRequests.cancel(false);
+                    scheduleEnvRequests(interval);
+                }
+            }
+        }
+
+        private void scheduleEnvRequests(long initialDelay) {
+            synchronized (envLock) {
+                if (!isRunning) return;
+                envRequests = envScheduler.scheduleWithFixedDelay(
+                        this::requestEnvData, initialDelay, envRequestInterval, TimeUnit.MILLISECONDS);
+            }
         }
 
         public void run() {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
             byte[] readTmp = new byte[1024];
+            scheduleEnvRequests(FIRST_ENV_REQUEST_DELAY_MS);
 
-            // Request initial data
-            new Handler(Looper.getMainLooper()).postDelayed(this::requestEnvData, 1000);
-
-            while (isRunning) {
+            if (mmInStream != null) {
                 try {
-                    long now = System.currentTimeMillis();
-                    if (now - lastEnvRequestTime >= envRequestInterval) {
-                        requestEnvData();
-                        lastEnvRequestTime = now;
-                    }
-
-                    if (mmInStream == null) break;
-
-                    int available = mmInStream.available();
-                    if (available > 0) {
-                        int toRead = Math.min(available, readTmp.length);
-                        int read = mmInStream.read(readTmp, 0, toRead);
-                        if (read > 0) {
-                            buffer.write(readTmp, 0, read);
-                            processBuffer(buffer);
-                        }
-                    } else {
-                        try {
-                            Thread.sleep(50);
-                        } catch (InterruptedException e) {
-                            break;
-                        }
-                    }
+                    // Wakes up as soon as bytes arrive; cancel() closes the socket to end it
+                    parser.readFrom(mmInStream, readTmp);
                 } catch (IOException e) {
-                    Log.e(TAG, "disconnected", e);
-                    break;
+                    if (isRunning) Log.e(TAG, "disconnected", e);
                 }
             }
+            RemoteMotionDetector detector = remoteMotionDetector;
+            if (detector != null) {
+                detector.onStreamClosed();
+            }
             cancel();
         }
 
-        private void processBuffer(ByteArrayOutputStream buffer) {
-            byte[] data = buffer.toByteArray();
-            if (data.length == 0) return;
-            
-            // Debug Log: Show how much data we have (helps to see if we are receiving anything)
-            if (data.length > 0) {
-                Log.d(TAG, "Processing buffer: " + data.length + " bytes");
+        @Override
+        public void onRawFrame(byte[] data, int offset, int width, int height) {
+            // Score the luma bytes as received, no Bitmap round trip
+            RemoteMotionDetector detector = remoteMotionDetector;
+            if (detector != null) {
+                detector.onFrame(data, offset, width, height, System.nanoTime());
             }
 
-            // 1. Check for Raw Binary Frame (AA 04 21 ...)
-            // Header: AA 04 21 W H ... (Start, Len, Cmd, W, H)
-            int frameStart = -1;
-            // We need at least 7 bytes for a header
-            if (data.length >= 7) {
-                for (int i = 0; i < data.length - 6; i++) {
-                    if ((data[i] & 0xFF) == 0xAA && 
-                        (data[i+1] & 0xFF) == 0x04 && 
-                        (data[i+2] & 0xFF) == 0x21) {
-                        frameStart = i;
-                        break;
-                    }
-                }
-            }
-
-            if (frameStart != -1) {
-                // Found header!
-                Log.d(TAG, "Found Frame Header at index: " + frameStart);
-                
-                // If there is data BEFORE the header, process it as text/garbage
-                if (frameStart > 0) {
-                    byte[] textBytes = new byte[frameStart];
-                    System.arraycopy(data, 0, textBytes, 0, frameStart);
-                    // Try to process as text
-                    String textChunk = new String(textBytes);
-                    String[] lines = textChunk.split("\\r?\\n");
-                    for (String line : lines) {
-                        if (!line.trim().isEmpty()) processTextLine(line.trim());
-                    }
-                    
-                    // Remove the prefix and recurse
-                    int remainingLen = data.length - frameStart;
-                    byte[] remaining = new byte[remainingLen];
-                    System.arraycopy(data, frameStart, remaining, 0, remainingLen);
-                    buffer.reset();
-                    try { buffer.write(remaining); } catch (IOException e) {}
-                    processBuffer(buffer);
-                    return;
-                }
-
-                // Frame starts at 0
-                int headerSize = 7;
-                int imageSize = 160 * 120; // 19200 bytes
-                int totalPacketSize = headerSize + imageSize;
-
-                if (data.length >= totalPacketSize) {
-                    Log.d(TAG, "Full frame received (" + totalPacketSize + " bytes). Decoding...");
-                    // We have the full frame
-                    try {
-                        int[] pixels = new int[imageSize];
-                        int dataStart = headerSize;
-                        
-                        for (int i = 0; i < imageSize; i++) {
-                            int gray = data[dataStart + i] & 0xFF;
-                            pixels[i] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
-                        }
-                        
-                        final Bitmap bmp = Bitmap.createBitmap(pixels, 160, 120, Bitmap.Config.ARGB_8888);
-                        
-                        if (bmp != null && listener != null) {
-                            new Handler(Looper.getMainLooper()).post(() -> {
-                                if (listener != null) listener.onImageReceived(bmp);
-                            });
-                        }
-                    } catch (Exception e) {
-                        Log.w(TAG, "Failed to decode OV7670 frame", e);
-                    }
-
-                    // Remove processed frame from buffer
-                    int consumed = totalPacketSize;
-                    int remainingLen = data.length - consumed;
-                    if (remainingLen > 0) {
-                        byte[] remaining = new byte[remainingLen];
-                        System.arraycopy(data, consumed, remaining, 0, remainingLen);
-                        buffer.reset();
-                        try { buffer.write(remaining); } catch (IOException e) {}
-                        processBuffer(buffer); // Process remaining data
-                    } else {
-                        buffer.reset();
-                    }
-                    return;
-                } else {
-                    // Incomplete frame, wait for more data
-                    // Do NOT process as text
-                    Log.d(TAG, "Incomplete frame: " + data.length + "/" + totalPacketSize);
-                    return;
-                }
+            try {
+                frameDecoder.decode(data, offset, width, height);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to decode OV7670 frame", e);
             }
+        }
 
-            // 2. Check for JPEG (FF D8)
-            int jpegStart = -1;
-            for (int i = 0; i < data.length - 1; i++) {
-                if ((data[i] & 0xFF) == 0xFF && (data[i+1] & 0xFF) == 0xD8) {
-                    jpegStart = i;
-                    break;
+        @Override
+        public void onJpeg(byte[] data, int offset, int length) {
+            try {
+                final Bitmap bmp = BitmapFactory.decodeByteArray(data, offset, length);
+                if (bmp != null && listener != null) {
+                    mainHandler.post(() -> {
+                        if (listener != null) listener.onImageReceived(bmp);
+                        frameDecoder.onOtherFrameShown();
+                    });
                 }
+            } catch (Exception e) {
+                Log.e(TAG, "JPEG decode error", e);
             }
+        }
 
-            if (jpegStart != -1) {
-                // Check for End (FF D9)
-                int jpegEnd = -1;
-                for (int j = jpegStart + 2; j < data.length - 1; j++) {
-                    if ((data[j] & 0xFF) == 0xFF && (data[j+1] & 0xFF) == 0xD9) {
-                        jpegEnd = j + 1;
-                        break;
-                    }
-                }
-
-                if (jpegEnd != -1) {
-                    // Found full JPEG
-                    try {
-                        int len = jpegEnd - jpegStart + 1;
-                        byte[] jpeg = new byte[len];
-                        System.arraycopy(data, jpegStart, jpeg, 0, len);
-                        final Bitmap bmp = BitmapFactory.decodeByteArray(jpeg, 0, len);
-                        if (bmp != null && listener != null) {
-                            new Handler(Looper.getMainLooper()).post(() -> {
-                                if (listener != null) listener.onImageReceived(bmp);
-                            });
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "JPEG decode error", e);
-                    }
-                    
-                    // Remove processed JPEG
-                    int consumed = jpegEnd + 1;
-                    int remainingLen = data.length - consumed;
-                    if (remainingLen > 0) {
-                        byte[] remaining = new byte[remainingLen];
-                        System.arraycopy(data, consumed, remaining, 0, remainingLen);
-                        buffer.reset();
-                        try { buffer.write(remaining); } catch (IOException e) {}
-                        processBuffer(buffer);
-                    } else {
-                        buffer.reset();
-                    }
-                    return;
-                }
-                // Else: Found start but not end. Wait.
+        @Override
+        public void onTextLine(byte[] data, int offset, int length) {
+            // Telemetry arrives several times a second; parse it without building a String
+            if (envParser.parse(data, offset, length, envReading)) {
+                processEnvReading(envReading);
                 return;
             }
-
-            // 3. Text Processing (Fallback)
-            // Only process if we are sure it's not a partial binary frame
-            // If buffer is very large and no frame found, it might be garbage, but we try to extract text.
-            
-            String textChunk = new String(data);
-            int lastNewline = textChunk.lastIndexOf('\n');
-            if (lastNewline >= 0) {
-                String toProcess = textChunk.substring(0, lastNewline);
-                String[] lines = toProcess.split("\\r?\\n");
-                for (String line : lines) {
-                    processTextLine(line.trim());
-                }
-                
-                // Remove processed text
-                int consumed = lastNewline + 1; // +1 for the newline
-                int remainingLen = data.length - consumed;
-                if (remainingLen > 0) {
-                    byte[] remaining = new byte[remainingLen];
-                    System.arraycopy(data, consumed, remaining, 0, remainingLen);
-                    buffer.reset();
-                    try { buffer.write(remaining); } catch (IOException e) {}
-                } else {
-                    buffer.reset();
-                }
-            } else {
-                // No newline found.
-                // If buffer is getting too big, clear it to prevent OOM
-                if (buffer.size() > 50000) {
-                    buffer.reset();
+            String line = new String(data, offset, length);
+            if (line.length() > 3 && !line.startsWith("ENV:") && !line.startsWith("TEMP=")
+                    && !line.startsWith("SOUND_RAW=")) {
+                if (listener != null) {
+                    mainHandler.post(() -> {
+                        if (listener != null) listener.onMessageReceived(line);
+                    });
                 }
             }
         }
 
-        private void processTextLine(String line) {
-            if (line.isEmpty()) return;
-            if (line.startsWith("ENV:")) {
-                try {
-                    int tempStart = line.indexOf("TEMP=") + 5;
-                    int tempEnd = line.indexOf(" ", tempStart);
-                    float t = Float.parseFloat(line.substring(tempStart, tempEnd));
+        // Keys missing from a line keep their previous value
+        private void processEnvReading(EnvLineParser.Reading reading) {
+            if (reading.has(EnvLineParser.Reading.TEMPERATURE)) lastTemp = reading.getTemperature();
+            if (reading.has(EnvLineParser.Reading.HUMIDITY)) lastHum = reading.getHumidity();
 
-                    int humStart = line.indexOf("HUM=") + 4;
-                    int humEnd = line.indexOf(" ", humStart);
-                    float h = Float.parseFloat(line.substring(humStart, humEnd));
+            if (reading.has(EnvLineParser.Reading.SOUND)) {
+                int s = reading.getSound();
 
-                    int soundStart = line.indexOf("SOUND=") + 6;
-                    int soundEnd = line.indexOf("%", soundStart);
-                    int s = Integer.parseInt(line.substring(soundStart, soundEnd));
+                // Apply x5 multiplier
+                s = s * 5;
 
-                    // Apply x5 multiplier
-                    s = s * 5;
+                // Default minimum sound level 5 (start no any sound)
+                if (s < 5) s = 5;
 
-                    // Default minimum sound level 5 (start no any sound)
-                    if (s < 5) s = 5;
+                if (s > 100) s = 100;
 
-                    if (s > 100) s = 100;
-
-                    // Apply smoothing (Low-pass filter)
-                    // alpha = 0.2 means 20% new value, 80% old value -> smooth transition
-                    smoothedSound = smoothedSound * 0.8f + s * 0.2f;
-                    s = (int) smoothedSound;
-
-                    int lightStart = line.indexOf("LIGHT=") + 6;
-                    int lightEnd = line.indexOf("%", lightStart);
-                    int l = Integer.parseInt(line.substring(lightStart, lightEnd));
+                // Apply smoothing (Low-pass filter)
+                // alpha = 0.2 means 20% new value, 80% old value -> smooth transition
+                smoothedSound = smoothedSound * 0.8f + s * 0.2f;
+            }
 
-                    // Invert light percentage (100 - data)
-                    l = 100 - l;
-                    if (l < 0) l = 0;
+            if (reading.has(EnvLineParser.Reading.LIGHT)) {
+                // Invert light percentage (100 - data)
+                lastLight = Math.max(0, 100 - reading.getLight());
+            }
 
-                    if (listener != null) {
-                        final int finalS = s;
-                        final int finalL = l;
-                        new Handler(Looper.getMainLooper()).post(() -> {
-                            if (listener != null) listener.onEnvDataReceived(t, h, finalS, finalL);
-                        });
-                    }
-                } catch (Exception e) {
-                    Log.w(TAG, "Failed to parse ENV line: " + line, e);
-                }
-            } else if (line.length() > 3 && !line.startsWith("TEMP=") && !line.startsWith("SOUND_RAW=")) {
-                if (listener != null) {
-                    new Handler(Looper.getMainLooper()).post(() -> {
-                        if (listener != null) listener.onMessageReceived(line);
-                    });
-                }
+            if (listener != null && envUpdatePosted.compareAndSet(false, true)) {
+                mainHandler.post(envUpdate);
             }
         }
 
@@ -486,13 +355,16 @@ public class BluetoothManager {
             write("x");
         }
 
+        // Called from the UI, the ENV scheduler and the reader; one write at a time
         public void write(String s) {
             if (mmOutStream != null) {
-                try {
-                    mmOutStream.write(s.getBytes());
-                    mmOutStream.flush();
-                } catch (IOException e) {
-                    Log.e(TAG, "Failed to send string: " + s, e);
+                synchronized (writeLock) {
+                    try {
+                        mmOutStream.write(s.getBytes());
+                        mmOutStream.flush();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to send string: " + s, e);
+                    }
                 }
             }
         }
@@ -502,7 +374,10 @@ public class BluetoothManager {
         }
 
         public void cancel() {
-            isRunning = false;
+            synchronized (envLock) {
+                isRunning = false;
+                envScheduler.shutdownNow();
+            }
             try {
                 bluetoothSocket.close();
             } catch (IOException e) {
@@ -3,8 +3,10 @@ package ict.mgame.homesecurity;
 import android.content.ContentValues;
 import android.content.Context;
 import android.os.Build;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.util.Size;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -14,6 +16,9 @@ import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCaptureException;
 import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
+import androidx.camera.core.resolutionselector.AspectRatioStrategy;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.video.MediaStoreOutputOptions;
 import androidx.camera.video.Quality;
@@ -28,60 +33,255 @@ import androidx.lifecycle.LifecycleOwner;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
-import java.nio.ByteBuffer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CameraManager {
     private static final String TAG = "CameraManager";
     private static final String FILENAME_FORMAT = "yyyy-MM-dd-HH-mm-ss-SSS";
+    private static final String HEATMAP_FILE = "motion_heatmap.bin";
+    private static final String METRICS_FILE = "analysis_metrics.txt";
+    private static final long HEATMAP_SAVE_INTERVAL_NANOS = 600_000_000_000L;
+    // Minimum spacing of follow-up snapshots while an incident goes on
+    private static final long SNAPSHOT_INTERVAL_NANOS = 5_000_000_000L;
 
     private final Context context;
     private final LifecycleOwner lifecycleOwner;
     private final PreviewView viewFinder;
     private final ExecutorService cameraExecutor;
+    // Encodes pre-motion clips and heatmap snapshots off the analysis thread
+    private final ExecutorService clipExecutor;
 
     private ImageCapture imageCapture;
     private VideoCapture<Recorder> videoCapture;
     private Recording recording;
     private ImageAnalysis imageAnalysis;
     private ProcessCameraProvider cameraProvider;
+    private CameraSelector cameraSelector;
+    private AnalysisProfile analysisProfile = AnalysisProfile.BALANCED;
 
     private boolean isMotionSensorEnabled = false;
-    private byte[] previousFrame;
-    private static final double MOTION_THRESHOLD = 15.0;
-    private static final int MOTION_WINDOW_SAMPLES = 3;
-    private int motionSampleCount = 0;
-    private double motionAccumulator = 0.0;
+    private final MotionEngine motionEngine;
+    private final MotionIncidentTracker incidentTracker = new MotionIncidentTracker();
+    private final AnalysisRateGovernor rateGovernor = new AnalysisRateGovernor();
+    private final PreMotionBuffer preMotionBuffer = new PreMotionBuffer();
+    private volatile MotionIncidentTracker.IncidentListener incidentListener;
+    private volatile File preMotionClipDirectory;
+    private final AtomicReference<File> lastPreMotionClip = new AtomicReference<>();
+    private final MotionHeatmap heatmap = new MotionHeatmap(
+            TileMotionGrid.DEFAULT_TILE_COLS, TileMotionGrid.DEFAULT_TILE_ROWS);
+    // Snapshot handed to the writer; only refilled once the previous one is on disk
+    private final int[] heatmapSnapshot = new int[heatmap.getCols() * heatmap.getRows()];
+    private final AtomicBoolean heatmapSaving = new AtomicBoolean(false);
+    private final File heatmapFile;
+    private long lastHeatmapSaveNanos = -1;
+    private final AnalysisMetrics analysisMetrics = new AnalysisMetrics();
+    private final SnapshotDeduplicator snapshotDeduplicator = new SnapshotDeduplicator();
+    private volatile SnapshotListener snapshotListener;
+    private long lastSnapshotNanos;
+    private int snapshotCount;
 
     private MotionDetectionListener motionListener;
+    private LightingChangeListener lightingListener;
     private int lensFacing = CameraSelector.LENS_FACING_BACK;
 
     public interface MotionDetectionListener {
-        void onMotionDetected();
+        // Called on the analysis thread; result is reused, copy anything needed after returning
+        void onMotionDetected(MotionResult result);
+    }
+
+    public interface SnapshotListener {
+        /**
+         * Called on the analysis thread when motion goes on and the scene differs from every
+         * snapshot taken so far in this incident; {@code capture} counts from 1, capture 0
+         * being the one taken when the incident started.
+         */
+        void onSnapshotRequested(MotionIncidentTracker.Incident incident, int capture);
+    }
+
+    public interface LightingChangeListener {
+        // Called on the analysis thread when a frame changed by global brightness rather than motion
+        void onLightingChanged(MotionResult result);
     }
 
     public CameraManager(Context context, LifecycleOwner lifecycleOwner, PreviewView viewFinder) {
+        this(context, lifecycleOwner, viewFinder, MotionEngine.DetectorMode.FRAME_DIFFERENCE);
+    }
+
+    public CameraManager(Context context, LifecycleOwner lifecycleOwner, PreviewView viewFinder,
+                         MotionEngine.DetectorMode detectorMode) {
         this.context = context;
         this.lifecycleOwner = lifecycleOwner;
         this.viewFinder = viewFinder;
         this.cameraExecutor = Executors.newSingleThreadExecutor();
+        this.clipExecutor = Executors.newSingleThreadExecutor();
+        this.motionEngine = new MotionEngine(detectorMode);
+        this.motionEngine.setAnalysisProfile(analysisProfile);
+        this.motionEngine.setMetrics(analysisMetrics);
+        this.preMotionClipDirectory = new File(context.getFilesDir(), "pre_motion");
+        this.heatmapFile = new File(context.getFilesDir(), HEATMAP_FILE);
+        // Loaded on the analysis thread, which owns the heatmap from here on
+        this.cameraExecutor.execute(this::loadHeatmap);
+        this.incidentTracker.setListener(new MotionIncidentTracker.IncidentListener() {
+            @Override
+            public void onIncidentStarted(MotionIncidentTracker.Incident incident) {
+                savePreMotionClip();
+                startSnapshotIndex(incident.getStartNanos());
+                MotionIncidentTracker.IncidentListener l = incidentListener;
+                if (l != null) l.onIncidentStarted(incident);
+            }
+
+            @Override
+            public void onIncidentEnded(MotionIncidentTracker.Incident incident) {
+                MotionIncidentTracker.IncidentListener l = incidentListener;
+                if (l != null) l.onIncidentEnded(incident);
+            }
+
+            @Override
+            public void onIncidentResumed(MotionIncidentTracker.Incident incident) {
+                MotionIncidentTracker.IncidentListener l = incidentListener;
+                if (l != null) l.onIncidentResumed(incident);
+            }
+        });
     }
 
     public void setMotionListener(MotionDetectionListener listener) {
         this.motionListener = listener;
     }
 
+    public void setLightingListener(LightingChangeListener listener) {
+        this.lightingListener = listener;
+    }
+
+    // Incident start/resume/end transitions, delivered on the analysis thread
+    public void setIncidentListener(MotionIncidentTracker.IncidentListener listener) {
+        this.incidentListener = listener;
+    }
+
+    // Follow-up captures during long incidents; near-duplicate scenes are never requested
+    public void setSnapshotListener(SnapshotListener listener) {
+        this.snapshotListener = listener;
+    }
+
+    // Where the frames leading up to each incident are saved; null disables saving
+    public void setPreMotionClipDirectory(File directory) {
+        this.preMotionClipDirectory = directory;
+    }
+
+    /**
+     * Returns and forgets the clip of the seconds before the latest incident, see
+     * {@link PreMotionBuffer#encode}. Set before the incident listener is called; the file
+     * itself is written shortly after.
+     */
+    public File takePreMotionClip() {
+        return lastPreMotionClip.getAndSet(null);
+    }
+
     public void setMotionSensorEnabled(boolean enabled) {
         this.isMotionSensorEnabled = enabled;
         if (!enabled) {
-            previousFrame = null;
+            motionEngine.reset();
+        }
+    }
+
+    // Detector settings (zones, sampling grid, thresholds) are configured on the engine directly
+    public MotionEngine getMotionEngine() {
+        return motionEngine;
+    }
+
+    // Idle/active analysis rate; configure from any thread, read state from the analysis thread
+    public AnalysisRateGovernor getRateGovernor() {
+        return rateGovernor;
+    }
+
+    // Stage latencies and delivered/dropped/analysed counters; readable from any thread
+    public AnalysisMetrics getAnalysisMetrics() {
+        return analysisMetrics;
+    }
+
+    /**
+     * Writes the current {@link AnalysisMetrics#dump} report to analysis_metrics.txt in the
+     * app's files directory, in the background.
+     */
+    public File dumpAnalysisMetrics() {
+        File file = new File(context.getFilesDir(), METRICS_FILE);
+        clipExecutor.execute(() -> {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                analysisMetrics.dump(out);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write analysis metrics", e);
+            }
+        });
+        return file;
+    }
+
+    public AnalysisProfile getAnalysisProfile() {
+        return analysisProfile;
+    }
+
+    /**
+     * Switches the analysis resolution and sampling grid. Only the ImageAnalysis use case is
+     * rebound, so preview, capture and an ongoing recording keep running. Call from the main thread.
+     */
+    public void setAnalysisProfile(AnalysisProfile profile) {
+        if (profile == analysisProfile) return;
+        analysisProfile = profile;
+        motionEngine.setAnalysisProfile(profile);
+        if (cameraProvider == null || imageAnalysis == null || !cameraProvider.isBound(imageAnalysis)) {
+            return;
+        }
+        resetPreMotionBuffer();
+        try {
+            cameraProvider.unbind(imageAnalysis);
+            imageAnalysis = buildImageAnalysis();
+            cameraProvider.bindToLifecycle(lifecycleOwner, cameraSelector, imageAnalysis);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to rebind analysis for profile " + profile, e);
         }
     }
 
+    /**
+     * Copies the long-term motion heatmap as {@link TileMotionGrid#DEFAULT_TILE_COLS} x
+     * {@link TileMotionGrid#DEFAULT_TILE_ROWS} ARGB pixels (see {@link MotionHeatmap#toArgb})
+     * and hands them to {@code callback} on the analysis thread.
+     */
+    public void requestHeatmap(HeatmapCallback callback) {
+        if (cameraExecutor.isShutdown()) return;
+        cameraExecutor.execute(() -> {
+            int[] pixels = new int[heatmap.getCols() * heatmap.getRows()];
+            heatmap.toArgb(pixels);
+            callback.onHeatmap(pixels, heatmap.getCols(), heatmap.getRows(), heatmap.toMask(0.5));
+        });
+    }
+
+    public interface HeatmapCallback {
+        // suggestedExclusion holds the busiest tiles, a starting point for setZones()
+        void onHeatmap(int[] argb, int cols, int rows, TileMask suggestedExclusion);
+    }
+
+    public void clearHeatmap() {
+        if (cameraExecutor.isShutdown()) return;
+        cameraExecutor.execute(() -> {
+            heatmap.clear();
+            saveHeatmap();
+        });
+    }
+
     public boolean isMotionSensorEnabled() {
         return isMotionSensorEnabled;
     }
@@ -92,10 +292,14 @@ public class CameraManager {
         } else {
             lensFacing = CameraSelector.LENS_FACING_BACK;
         }
+        // Frames from the other lens must not be diffed against this one
+        motionEngine.reset();
         startCamera();
     }
 
     public void startCamera() {
+        // A clip must not splice frames from before a switch or restart onto the new ones
+        resetPreMotionBuffer();
         ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(context);
 
         cameraProviderFuture.addListener(() -> {
@@ -107,17 +311,14 @@ public class CameraManager {
 
                 imageCapture = new ImageCapture.Builder().build();
 
-                imageAnalysis = new ImageAnalysis.Builder()
-                        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
-                        .build();
-                imageAnalysis.setAnalyzer(cameraExecutor, this::analyzeFrameForMotion);
+                imageAnalysis = buildImageAnalysis();
 
                 Recorder recorder = new Recorder.Builder()
                         .setQualitySelector(QualitySelector.from(Quality.HIGHEST))
                         .build();
                 videoCapture = VideoCapture.withOutput(recorder);
 
-                CameraSelector cameraSelector = new CameraSelector.Builder().requireLensFacing(lensFacing).build();
+                cameraSelector = new CameraSelector.Builder().requireLensFacing(lensFacing).build();
 
                 try {
                     cameraProvider.unbindAll();
@@ -141,10 +342,39 @@ public class CameraManager {
         }, ContextCompat.getMainExecutor(context));
     }
 
+    // The buffer is only touched on the analysis thread
+    private void resetPreMotionBuffer() {
+        if (cameraExecutor.isShutdown()) return;
+        cameraExecutor.execute(preMotionBuffer::reset);
+    }
+
+    private ImageAnalysis buildImageAnalysis() {
+        boolean wide = analysisProfile.getWidth() * 3 != analysisProfile.getHeight() * 4;
+        ResolutionSelector resolutionSelector = new ResolutionSelector.Builder()
+                .setAspectRatioStrategy(wide
+                        ? AspectRatioStrategy.RATIO_16_9_FALLBACK_AUTO_STRATEGY
+                        : AspectRatioStrategy.RATIO_4_3_FALLBACK_AUTO_STRATEGY)
+                .setResolutionStrategy(new ResolutionStrategy(
+                        new Size(analysisProfile.getWidth(), analysisProfile.getHeight()),
+                        ResolutionStrategy.FALLBACK_RULE_CLOSEST_HIGHER_THEN_LOWER))
+                .build();
+        ImageAnalysis analysis = new ImageAnalysis.Builder()
+                .setResolutionSelector(resolutionSelector)
+                .setOutputImageFormat(ImageAnalysis.OUTPUT_IMAGE_FORMAT_YUV_420_888)
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .build();
+        analysis.setAnalyzer(cameraExecutor, this::analyzeFrameForMotion);
+        return analysis;
+    }
+
     public void stopCamera() {
         if (cameraProvider != null) {
             cameraProvider.unbindAll();
         }
+        // No more frames will advance the tracker, so close any open incident now
+        if (!cameraExecutor.isShutdown()) {
+            cameraExecutor.execute(incidentTracker::finish);
+        }
     }
 
     public void takePhoto(OnPhotoSavedCallback callback) {
@@ -247,51 +477,164 @@ public class CameraManager {
     }
 
     private void analyzeFrameForMotion(ImageProxy image) {
+        long startNanos = System.nanoTime();
+        long timestamp = image.getImageInfo().getTimestamp();
+        analysisMetrics.onFrameDelivered(timestamp);
         if (!isMotionSensorEnabled) {
+            // Keep the clock running so an open incident still ends
+            incidentTracker.update(false, 0, timestamp);
+            rateGovernor.reset();
+            image.close();
+            return;
+        }
+
+        // Empty scenes are analysed at the idle rate to keep the phone cool
+        if (!rateGovernor.shouldAnalyze(timestamp)) {
+            analysisMetrics.onFrameSkipped();
+            incidentTracker.update(false, 0, timestamp);
             image.close();
             return;
         }
 
         ImageProxy.PlaneProxy yPlane = image.getPlanes()[0];
-        ByteBuffer yBuffer = yPlane.getBuffer();
-        byte[] currentFrame = new byte[yBuffer.remaining()];
-        yBuffer.get(currentFrame);
-
-        if (previousFrame != null && currentFrame.length == previousFrame.length) {
-            double difference = calculateMotionDifference(previousFrame, currentFrame);
-            motionAccumulator += difference;
-            motionSampleCount++;
-            if (motionSampleCount >= MOTION_WINDOW_SAMPLES) {
-                double avg = motionAccumulator / motionSampleCount;
-                if (avg > MOTION_THRESHOLD) {
-                    if (motionListener != null) {
-                        motionListener.onMotionDetected();
-                    }
-                }
-                motionAccumulator = 0.0;
-                motionSampleCount = 0;
-            }
+        MotionResult result = motionEngine.process(yPlane.getBuffer(), image.getWidth(), image.getHeight(),
+                yPlane.getRowStride(), yPlane.getPixelStride(), timestamp);
+        long dispatchNanos = System.nanoTime();
+        if (result.isMotionDetected() && motionListener != null) {
+            motionListener.onMotionDetected(result);
+        }
+        if (result.isLightingChange() && lightingListener != null) {
+            lightingListener.onLightingChanged(result);
+        }
+        preMotionBuffer.offer(motionEngine.getSampledFrame(),
+                motionEngine.getSampledCols(), motionEngine.getSampledRows(), timestamp);
+        incidentTracker.update(result);
+        if (result.isMotionDetected() && incidentTracker.getState() != MotionIncidentTracker.State.IDLE
+                && timestamp - lastSnapshotNanos >= SNAPSHOT_INTERVAL_NANOS) {
+            requestSnapshot(timestamp);
+        }
+        rateGovernor.onResult(result);
+        heatmap.accumulate(result);
+        if (lastHeatmapSaveNanos < 0) {
+            lastHeatmapSaveNanos = timestamp;
+        } else if (timestamp - lastHeatmapSaveNanos >= HEATMAP_SAVE_INTERVAL_NANOS) {
+            lastHeatmapSaveNanos = timestamp;
+            saveHeatmap();
         }
-        previousFrame = currentFrame;
         image.close();
+        long endNanos = System.nanoTime();
+        analysisMetrics.record(AnalysisMetrics.Stage.DISPATCH, endNanos - dispatchNanos);
+        analysisMetrics.record(AnalysisMetrics.Stage.TOTAL, endNanos - startNanos);
+        analysisMetrics.onFrameFinished(timestamp, nowInTimebaseOf(timestamp, endNanos));
+        analysisMetrics.onFrameAnalysed();
+    }
+
+    /**
+     * Sensor timestamps run on the uptime clock (System.nanoTime) or on elapsed realtime,
+     * depending on the device. Returns the current time on whichever of the two the frame's
+     * timestamp is closest to.
+     */
+    private static long nowInTimebaseOf(long timestampNanos, long uptimeNanos) {
+        long realtimeNanos = SystemClock.elapsedRealtimeNanos();
+        return Math.abs(realtimeNanos - timestampNanos) < Math.abs(uptimeNanos - timestampNanos)
+                ? realtimeNanos : uptimeNanos;
+    }
+
+    // Analysis thread only; the incident's first capture is the photo taken when it starts
+    private void startSnapshotIndex(long timestampNanos) {
+        snapshotDeduplicator.clear();
+        snapshotDeduplicator.add(SnapshotDeduplicator.dHash(motionEngine.getSampledFrame(),
+                motionEngine.getSampledCols(), motionEngine.getSampledRows()), 0);
+        snapshotCount = 1;
+        lastSnapshotNanos = timestampNanos;
     }
 
-    private double calculateMotionDifference(byte[] frame1, byte[] frame2) {
-        if (frame1.length == 0 || frame2.length == 0) return 0;
-        long difference = 0;
-        int sampleStep = 8;
-        int sampleCount = 0;
-        for (int i = 0; i < frame1.length; i += sampleStep) {
-            int val1 = frame1[i] & 0xFF;
-            int val2 = frame2[i] & 0xFF;
-            difference += Math.abs(val2 - val1);
-            sampleCount++;
+    private void requestSnapshot(long timestampNanos) {
+        lastSnapshotNanos = timestampNanos;
+        long hash = SnapshotDeduplicator.dHash(motionEngine.getSampledFrame(),
+                motionEngine.getSampledCols(), motionEngine.getSampledRows());
+        int similar = snapshotDeduplicator.findSimilar(hash);
+        if (similar >= 0) {
+            Log.d(TAG, "Skipping snapshot, scene matches capture " + similar);
+            return;
         }
-        return sampleCount == 0 ? 0 : (double) difference / sampleCount;
+        int capture = snapshotCount++;
+        snapshotDeduplicator.add(hash, capture);
+        SnapshotListener l = snapshotListener;
+        if (l != null) l.onSnapshotRequested(incidentTracker.getIncident(), capture);
+    }
+
+    // Analysis thread only
+    private void loadHeatmap() {
+        if (!heatmapFile.isFile()) return;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(heatmapFile))) {
+            if (!heatmap.read(in)) {
+                Log.w(TAG, "Ignoring heatmap saved for another tile grid");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load motion heatmap", e);
+        }
+    }
+
+    // Analysis thread only; skipped if the previous snapshot is still being written
+    private void saveHeatmap() {
+        if (!heatmapSaving.compareAndSet(false, true)) return;
+        heatmap.copyTo(heatmapSnapshot);
+        int cols = heatmap.getCols();
+        int rows = heatmap.getRows();
+        clipExecutor.execute(() -> {
+            // Written aside and renamed so a crash never leaves a truncated map behind
+            File tmp = new File(heatmapFile.getPath() + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                MotionHeatmap.write(out, cols, rows, heatmapSnapshot);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save motion heatmap", e);
+                tmp.delete();
+                heatmapSaving.set(false);
+                return;
+            }
+            if (!tmp.renameTo(heatmapFile)) {
+                Log.e(TAG, "Cannot replace " + heatmapFile);
+            }
+            heatmapSaving.set(false);
+        });
+    }
+
+    // Runs on the analysis thread when an incident starts
+    private void savePreMotionClip() {
+        lastPreMotionClip.set(null);
+        File directory = preMotionClipDirectory;
+        if (directory == null || !preMotionBuffer.freeze()) return;
+
+        String name = "pre_motion_" + new SimpleDateFormat(FILENAME_FORMAT, Locale.US)
+                .format(System.currentTimeMillis()) + ".hspm";
+        File clip = new File(directory, name);
+        lastPreMotionClip.set(clip);
+        clipExecutor.execute(() -> {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Log.e(TAG, "Cannot create " + directory);
+                preMotionBuffer.discardFrozenClip();
+                return;
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(clip))) {
+                preMotionBuffer.encode(out);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save pre-motion clip", e);
+                preMotionBuffer.discardFrozenClip();
+                clip.delete();
+            }
+        });
     }
 
     public void shutdown() {
         if (cameraExecutor != null) {
+            // The engine and tracker are only used on the analysis thread, so release them there
+            cameraExecutor.execute(() -> {
+                incidentTracker.finish();
+                saveHeatmap();
+                // Lets a clip that is being written finish
+                clipExecutor.shutdown();
+            });
             cameraExecutor.shutdown();
         }
     }
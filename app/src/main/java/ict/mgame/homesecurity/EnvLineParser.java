@@ -0,0 +1,161 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Parses {@code ENV: TEMP=21.5 HUM=40.0 SOUND=3% LIGHT=55%} telemetry lines straight from the
+ * received bytes into a reusable {@link Reading}. Keys may come in any order or be missing,
+ * unknown keys are skipped, and numbers are read as fixed point with one decimal, so a line
+ * is parsed without allocating anything.
+ */
+public class EnvLineParser {
+    private static final byte[] PREFIX = {'E', 'N', 'V', ':'};
+    private static final byte[] KEY_TEMP = {'T', 'E', 'M', 'P'};
+    private static final byte[] KEY_HUM = {'H', 'U', 'M'};
+    private static final byte[] KEY_SOUND = {'S', 'O', 'U', 'N', 'D'};
+    private static final byte[] KEY_LIGHT = {'L', 'I', 'G', 'H', 'T'};
+    // Integer digits beyond this cannot be a sensor value
+    private static final int MAX_INTEGER_DIGITS = 6;
+
+    public static class Reading {
+        public static final int TEMPERATURE = 1;
+        public static final int HUMIDITY = 1 << 1;
+        public static final int SOUND = 1 << 2;
+        public static final int LIGHT = 1 << 3;
+
+        private int present;
+        // All values in tenths
+        private int temperature;
+        private int humidity;
+        private int sound;
+        private int light;
+
+        public boolean has(int key) {
+            return (present & key) != 0;
+        }
+
+        public float getTemperature() {
+            return temperature / 10f;
+        }
+
+        public float getHumidity() {
+            return humidity / 10f;
+        }
+
+        // Percent, rounded
+        public int getSound() {
+            return roundTenths(sound);
+        }
+
+        public int getLight() {
+            return roundTenths(light);
+        }
+
+        private static int roundTenths(int tenths) {
+            return tenths >= 0 ? (tenths + 5) / 10 : -((-tenths + 5) / 10);
+        }
+    }
+
+    // Value parsed by parseValue(), in tenths, and the position after it
+    private int value;
+    private int valueEnd;
+
+    /**
+     * Parses {@code length} bytes from {@code data[offset]}. Fields missing from the line are
+     * marked absent in {@code out}; their old values are left in place.
+     *
+     * @return false if this is not an ENV line or holds none of the known keys
+     */
+    public boolean parse(byte[] data, int offset, int length, Reading out) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end && data[i] <= ' ') i++;
+        if (!matches(data, i, end, PREFIX)) return false;
+        i += PREFIX.length;
+        out.present = 0;
+
+        while (i < end) {
+            while (i < end && isSeparator(data[i])) i++;
+            int keyStart = i;
+            while (i < end && data[i] != '=' && !isSeparator(data[i])) i++;
+            if (i >= end || data[i] != '=') continue;
+            int keyLength = i - keyStart;
+            i++;
+            boolean parsed = parseValue(data, i, end);
+            i = valueEnd;
+            // Units such as % or C up to the next separator
+            while (i < end && !isSeparator(data[i])) i++;
+            if (!parsed) continue;
+
+            if (keyEquals(data, keyStart, keyLength, KEY_TEMP)) {
+                out.temperature = value;
+                out.present |= Reading.TEMPERATURE;
+            } else if (keyEquals(data, keyStart, keyLength, KEY_HUM)) {
+                out.humidity = value;
+                out.present |= Reading.HUMIDITY;
+            } else if (keyEquals(data, keyStart, keyLength, KEY_SOUND)) {
+                out.sound = value;
+                out.present |= Reading.SOUND;
+            } else if (keyEquals(data, keyStart, keyLength, KEY_LIGHT)) {
+                out.light = value;
+                out.present |= Reading.LIGHT;
+            }
+        }
+        return out.present != 0;
+    }
+
+    // [-]digits[.digits] into tenths, the second decimal rounding; false if there are no digits
+    private boolean parseValue(byte[] data, int i, int end) {
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        int integer = 0;
+        int digits = 0;
+        while (i < end && isDigit(data[i])) {
+            if (++digits > MAX_INTEGER_DIGITS) {
+                valueEnd = i;
+                return false;
+            }
+            integer = integer * 10 + (data[i++] - '0');
+        }
+        int tenths = integer * 10;
+        if (i < end && data[i] == '.') {
+            i++;
+            int fraction = 0;
+            while (i < end && isDigit(data[i])) {
+                if (fraction == 0) {
+                    tenths += data[i] - '0';
+                } else if (fraction == 1 && data[i] >= '5') {
+                    tenths++;
+                }
+                fraction++;
+                digits++;
+                i++;
+            }
+        }
+        valueEnd = i;
+        if (digits == 0) return false;
+        value = negative ? -tenths : tenths;
+        return true;
+    }
+
+    private static boolean matches(byte[] data, int i, int end, byte[] expected) {
+        if (end - i < expected.length) return false;
+        for (int k = 0; k < expected.length; k++) {
+            if (data[i + k] != expected[k]) return false;
+        }
+        return true;
+    }
+
+    private static boolean keyEquals(byte[] data, int start, int length, byte[] key) {
+        return length == key.length && matches(data, start, start + length, key);
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t' || b == ',' || b == ';' || b == '\r' || b == '\n';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
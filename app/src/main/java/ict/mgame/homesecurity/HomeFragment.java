@@ -1,9 +1,11 @@
 package ict.mgame.homesecurity;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -20,8 +22,14 @@ import androidx.core.app.NotificationCompat;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -34,9 +42,10 @@ import java.util.Locale;
 
 import android.content.Intent;
 
-public class HomeFragment extends Fragment implements BluetoothManager.BluetoothListener, CameraManager.MotionDetectionListener {
+public class HomeFragment extends Fragment implements BluetoothManager.BluetoothListener, MotionIncidentTracker.IncidentListener {
 
     private CameraManager cameraManager;
+    private RemoteMotionDetector remoteMotionDetector;
     private BluetoothManager bluetoothManager;
     
     private PreviewView viewFinder;
@@ -49,8 +58,15 @@ public class HomeFragment extends Fragment implements BluetoothManager.Bluetooth
 
     private boolean isPrivacyMode = false;
     private boolean isRemoteCameraActive = false;
-    private long lastMotionTime = 0;
-    private static final long MOTION_COOLDOWN_MS = 5000; // 5 seconds cooldown
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable incidentStartedAction = this::handleIncidentStarted;
+    private final Runnable incidentEndedAction = this::handleIncidentEnded;
+    private final Runnable incidentResumedAction = this::handleIncidentResumed;
+    private final Runnable alarmTimerAction = this::handleAlarmTimer;
+    // Writes the frames that started remote incidents
+    private final ExecutorService remoteFrameExecutor = Executors.newSingleThreadExecutor();
+    // Main thread only
+    private final AlarmController alarmController = new AlarmController(this::setBridgeAlarm);
 
     @Nullable
     @Override
@@ -83,7 +99,15 @@ public class HomeFragment extends Fragment implements BluetoothManager.Bluetooth
         bluetoothManager.setListener(this);
 
         cameraManager = new CameraManager(requireContext(), getViewLifecycleOwner(), viewFinder);
-        cameraManager.setMotionListener(this);
+        cameraManager.setIncidentListener(this);
+        cameraManager.setSnapshotListener((incident, capture) ->
+                mainHandler.post(() -> handleSnapshotRequested(capture)));
+
+        // The remote camera guards too, so detection keeps running in privacy mode
+        remoteMotionDetector = new RemoteMotionDetector();
+        remoteMotionDetector.setIncidentListener(remoteIncidentListener);
+        remoteMotionDetector.setEnabled(cameraManager.isMotionSensorEnabled());
+        bluetoothManager.setRemoteMotionDetector(remoteMotionDetector);
         
         setupListeners();
         updateBackgroundServiceButton();
@@ -139,6 +163,7 @@ public class HomeFragment extends Fragment implements BluetoothManager.Bluetooth
         btnMotionSensor.setOnClickListener(v -> {
             boolean newState = !cameraManager.isMotionSensorEnabled();
             cameraManager.setMotionSensorEnabled(newState);
+            remoteMotionDetector.setEnabled(newState);
             updateMotionButton(newState);
         });
 
@@ -303,48 +328,168 @@ public class HomeFragment extends Fragment implements BluetoothManager.Bluetooth
     }
 
     @Override
-    public void onMotionDetected() {
-        long now = System.currentTimeMillis();
-        if (now - lastMotionTime < MOTION_COOLDOWN_MS) {
-            return;
+    public void onIncidentStarted(MotionIncidentTracker.Incident incident) {
+        mainHandler.post(incidentStartedAction);
+    }
+
+    @Override
+    public void onIncidentEnded(MotionIncidentTracker.Incident incident) {
+        mainHandler.post(incidentEndedAction);
+    }
+
+    @Override
+    public void onIncidentResumed(MotionIncidentTracker.Incident incident) {
+        mainHandler.post(incidentResumedAction);
+    }
+
+    // Remote incidents never touch the phone camera, which may be off in privacy mode
+    private final MotionIncidentTracker.IncidentListener remoteIncidentListener =
+            new MotionIncidentTracker.IncidentListener() {
+        @Override
+        public void onIncidentStarted(MotionIncidentTracker.Incident incident) {
+            // Runs inside onFrame, so the triggering frame is still in the parser's buffer
+            byte[] frame = remoteMotionDetector.copyFrame();
+            int width = remoteMotionDetector.getFrameWidth();
+            int height = remoteMotionDetector.getFrameHeight();
+            mainHandler.post(() -> handleRemoteIncidentStarted(frame, width, height));
         }
-        lastMotionTime = now;
 
-        new Handler(Looper.getMainLooper()).post(() -> {
-            if (!isAdded() || getContext() == null) return;
-            Toast.makeText(getContext(), "Motion Detected!", Toast.LENGTH_SHORT).show();
-            
-            // Take photo automatically
-            cameraManager.takePhoto(new CameraManager.OnPhotoSavedCallback() {
-                @Override
-                public void onPhotoSaved(String uri) {
-                    if (!isAdded() || getContext() == null) return;
-                    String msg = "Motion detected at " + new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date());
-                    saveAlert(msg, uri);
-                    sendNotification(msg);
-                }
-
-                @Override
-                public void onError(Exception e) {
-                    if (!isAdded() || getContext() == null) return;
-                    // Even if photo fails, save alert
-                    String msg = "Motion detected (Photo failed)";
-                    saveAlert(msg, null);
-                    sendNotification(msg);
-                }
+        @Override
+        public void onIncidentEnded(MotionIncidentTracker.Incident incident) {
+            mainHandler.post(incidentEndedAction);
+        }
+
+        @Override
+        public void onIncidentResumed(MotionIncidentTracker.Incident incident) {
+            mainHandler.post(incidentResumedAction);
+        }
+    };
+
+    private void handleIncidentStarted() {
+        if (!isAdded() || getContext() == null) return;
+        Toast.makeText(getContext(), "Motion Detected!", Toast.LENGTH_SHORT).show();
+
+        // Frames from just before the trigger, in case the photo below comes too late
+        File preMotionClip = cameraManager.takePreMotionClip();
+        String clipPath = preMotionClip != null ? preMotionClip.getAbsolutePath() : null;
+
+        // Take photo automatically
+        cameraManager.takePhoto(new CameraManager.OnPhotoSavedCallback() {
+            @Override
+            public void onPhotoSaved(String uri) {
+                if (!isAdded() || getContext() == null) return;
+                String msg = "Motion detected at " + new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date());
+                saveAlert(msg, uri, clipPath);
+                sendNotification(msg);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (!isAdded() || getContext() == null) return;
+                // Even if photo fails, save alert
+                String msg = "Motion detected (Photo failed)";
+                saveAlert(msg, null, clipPath);
+                sendNotification(msg);
+            }
+        });
+
+        // Sounds for one pulse, not for the whole incident
+        alarmController.onIncidentStarted(SystemClock.uptimeMillis());
+        scheduleAlarmTimer();
+    }
+
+    private void handleRemoteIncidentStarted(byte[] frame, int width, int height) {
+        alarmController.onIncidentStarted(SystemClock.uptimeMillis());
+        scheduleAlarmTimer();
+        if (!isAdded() || getContext() == null || remoteFrameExecutor.isShutdown()) return;
+        Toast.makeText(getContext(), "Motion Detected on Remote Camera!", Toast.LENGTH_SHORT).show();
+
+        File directory = new File(requireContext().getFilesDir(), "remote_frames");
+        String time = new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date());
+        remoteFrameExecutor.execute(() -> {
+            String uri = saveRemoteFrame(directory, frame, width, height);
+            mainHandler.post(() -> {
+                if (!isAdded() || getContext() == null) return;
+                String msg = uri != null ? "Motion detected on remote camera at " + time
+                        : "Motion detected on remote camera (Photo failed)";
+                saveAlert(msg, uri, null);
+                sendNotification(msg);
             });
+        });
+    }
+
+    // Writes a gray OV7670 frame as a JPEG; returns its file URI, or null on failure
+    private static String saveRemoteFrame(File directory, byte[] frame, int width, int height) {
+        if (!directory.isDirectory() && !directory.mkdirs()) return null;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int gray = frame[i] & 0xFF;
+            pixels[i] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        String name = "remote_" + new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS", Locale.US)
+                .format(System.currentTimeMillis()) + ".jpg";
+        File file = new File(directory, name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            return Uri.fromFile(file).toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    // Motion came back after a quiet spell: sound the alarm for another pulse
+    private void handleIncidentResumed() {
+        alarmController.onIncidentResumed(SystemClock.uptimeMillis());
+        scheduleAlarmTimer();
+    }
+
+    // A new scene while motion goes on; repeats of earlier captures are filtered out upstream
+    private void handleSnapshotRequested(int capture) {
+        if (!isAdded() || getContext() == null) return;
+        cameraManager.takePhoto(new CameraManager.OnPhotoSavedCallback() {
+            @Override
+            public void onPhotoSaved(String uri) {
+                if (!isAdded() || getContext() == null) return;
+                String msg = "Motion continues at " + new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date())
+                        + " (capture " + (capture + 1) + ")";
+                saveAlert(msg, uri, null);
+            }
 
-            // Trigger alarm via BluetoothManager
-            if (bluetoothManager.isConnected()) {
-                bluetoothManager.write("a");
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    bluetoothManager.write("x");
-                }, 3000);
+            @Override
+            public void onError(Exception e) {
+                e.printStackTrace();
             }
         });
     }
 
-    private void saveAlert(String message, String uri) {
+    // Runs even after the view is gone so the alarm is never left on
+    private void handleIncidentEnded() {
+        alarmController.onIncidentEnded(SystemClock.uptimeMillis());
+    }
+
+    private void handleAlarmTimer() {
+        alarmController.onTimer(SystemClock.uptimeMillis());
+    }
+
+    private void scheduleAlarmTimer() {
+        mainHandler.removeCallbacks(alarmTimerAction);
+        if (alarmController.isOn()) {
+            mainHandler.postAtTime(alarmTimerAction, alarmController.getOffAtMillis());
+        }
+    }
+
+    private void setBridgeAlarm(boolean on) {
+        if (bluetoothManager.isConnected()) {
+            bluetoothManager.write(on ? "a" : "x");
+        }
+    }
+
+    private void saveAlert(String message, String uri, String preMotionClip) {
         if (getContext() == null) return;
         SharedPreferences prefs = requireContext().getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE);
         String json = prefs.getString(Constants.ALERTS_KEY, "[]");
@@ -354,6 +499,7 @@ public class HomeFragment extends Fragment implements BluetoothManager.Bluetooth
             obj.put("message", message);
             obj.put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(new Date()));
             obj.put("uri", uri);
+            obj.put("preMotionClip", preMotionClip);
             arr.put(obj);
             prefs.edit().putString(Constants.ALERTS_KEY, arr.toString()).apply();
         } catch (JSONException e) {
@@ -384,7 +530,13 @@ public class HomeFragment extends Fragment implements BluetoothManager.Bluetooth
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        mainHandler.removeCallbacks(incidentStartedAction);
+        mainHandler.removeCallbacks(incidentResumedAction);
+        mainHandler.removeCallbacks(alarmTimerAction);
         cameraManager.shutdown();
+        bluetoothManager.setRemoteMotionDetector(null);
+        alarmController.stop();
+        remoteFrameExecutor.shutdown();
         bluetoothManager.setListener(null);
     }
 }
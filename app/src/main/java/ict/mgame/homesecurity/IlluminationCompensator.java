@@ -0,0 +1,105 @@
+package ict.mgame.homesecurity;
+
+import java.util.Arrays;
+
+/**
+ * Estimates a global gain and offset between two sampled luma grids from their histograms,
+ * so a lamp being switched on can be undone before differencing. Percentiles are matched
+ * rather than means, which keeps a person walking through the frame from skewing the fit.
+ */
+public class IlluminationCompensator {
+    // Below both of these the change is treated as sensor noise and nothing is normalized
+    public static final double MIN_GAIN_CHANGE = 0.08;
+    public static final double MIN_OFFSET = 6.0;
+    private static final double MAX_GAIN = 4.0;
+    private static final double LOW_PERCENTILE = 0.1;
+    private static final double MID_PERCENTILE = 0.5;
+    private static final double HIGH_PERCENTILE = 0.9;
+
+    private final int[] referenceHistogram = new int[256];
+    private final int[] currentHistogram = new int[256];
+    private final byte[] lut = new byte[256];
+    private double gain = 1.0;
+    private double offset = 0.0;
+
+    /**
+     * Fits {@code current ~ gain * reference + offset} over the samples of the active tiles of
+     * {@code grid} and prepares the lookup table for {@link #apply}.
+     *
+     * @return true if the change is large enough to be worth compensating
+     */
+    public boolean estimate(byte[] reference, byte[] current, TileMotionGrid grid) {
+        Arrays.fill(referenceHistogram, 0);
+        Arrays.fill(currentHistogram, 0);
+        TileMask activeTiles = grid.getActiveTiles();
+        int gridCols = grid.getGridCols();
+        int tileWidth = gridCols / grid.getTileCols();
+        int tileHeight = grid.getGridRows() / grid.getTileRows();
+        int samples = 0;
+        for (int tr = 0; tr < grid.getTileRows(); tr++) {
+            for (int tc = 0; tc < grid.getTileCols(); tc++) {
+                if (!activeTiles.get(tc, tr)) continue;
+                for (int y = tr * tileHeight; y < (tr + 1) * tileHeight; y++) {
+                    int i = y * gridCols + tc * tileWidth;
+                    for (int end = i + tileWidth; i < end; i++) {
+                        referenceHistogram[reference[i] & 0xFF]++;
+                        currentHistogram[current[i] & 0xFF]++;
+                    }
+                }
+                samples += tileWidth * tileHeight;
+            }
+        }
+        if (samples == 0) {
+            gain = 1.0;
+            offset = 0.0;
+            return false;
+        }
+
+        double refLow = percentile(referenceHistogram, samples, LOW_PERCENTILE);
+        double refMid = percentile(referenceHistogram, samples, MID_PERCENTILE);
+        double refHigh = percentile(referenceHistogram, samples, HIGH_PERCENTILE);
+        double curLow = percentile(currentHistogram, samples, LOW_PERCENTILE);
+        double curMid = percentile(currentHistogram, samples, MID_PERCENTILE);
+        double curHigh = percentile(currentHistogram, samples, HIGH_PERCENTILE);
+
+        // A flat reference (e.g. a dark room) has no spread to scale; shift it only
+        gain = refHigh - refLow >= 4 ? (curHigh - curLow) / (refHigh - refLow) : 1.0;
+        gain = Math.max(1.0 / MAX_GAIN, Math.min(MAX_GAIN, gain));
+        offset = curMid - gain * refMid;
+
+        for (int v = 0; v < 256; v++) {
+            long mapped = Math.round(v * gain + offset);
+            lut[v] = (byte) Math.max(0, Math.min(255, mapped));
+        }
+        return Math.abs(gain - 1.0) >= MIN_GAIN_CHANGE || Math.abs(offset) >= MIN_OFFSET;
+    }
+
+    // Maps the first length bytes of src through the fitted gain and offset into dst
+    public void apply(byte[] src, byte[] dst, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[i] = lut[src[i] & 0xFF];
+        }
+    }
+
+    public double getGain() {
+        return gain;
+    }
+
+    public double getOffset() {
+        return offset;
+    }
+
+    // Interpolated value below which the given fraction of samples falls
+    private static double percentile(int[] histogram, int samples, double fraction) {
+        double target = fraction * samples;
+        int cumulative = 0;
+        for (int v = 0; v < 256; v++) {
+            int next = cumulative + histogram[v];
+            if (next >= target && histogram[v] > 0) {
+                return v + (target - cumulative) / histogram[v] - 0.5;
+            }
+            cumulative = next;
+        }
+        return 255;
+    }
+}
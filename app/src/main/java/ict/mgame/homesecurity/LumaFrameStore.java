@@ -0,0 +1,74 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Small pool of reusable luma buffers for the motion analyzer.
+ * Each analysed frame is written into the next buffer in the ring, so the
+ * previous frame stays readable without allocating a new array per frame.
+ */
+public class LumaFrameStore {
+    public static final int DEFAULT_BUFFER_COUNT = 2;
+
+    private final byte[][] buffers;
+    // Native-order views of the buffers for SadKernels, created together with the arrays
+    private final ByteBuffer[] views;
+    private int frameLength = -1;
+    private int currentIndex = -1;
+    private int storedFrames = 0;
+
+    public LumaFrameStore() {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    public LumaFrameStore(int bufferCount) {
+        if (bufferCount < 2 || bufferCount > 3) {
+            throw new IllegalArgumentException("bufferCount must be 2 or 3: " + bufferCount);
+        }
+        this.buffers = new byte[bufferCount][];
+        this.views = new ByteBuffer[bufferCount];
+    }
+
+    /**
+     * Returns the buffer the next frame should be written into and makes it the current frame.
+     * Buffers are only reallocated when the frame length changes (e.g. after a camera switch).
+     */
+    public byte[] next(int length) {
+        if (length != frameLength) {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = new byte[length];
+                views[i] = ByteBuffer.wrap(buffers[i]).order(ByteOrder.nativeOrder());
+            }
+            frameLength = length;
+            storedFrames = 0;
+        }
+        currentIndex = (currentIndex + 1) % buffers.length;
+        if (storedFrames < buffers.length) {
+            storedFrames++;
+        }
+        return buffers[currentIndex];
+    }
+
+    public byte[] current() {
+        return storedFrames > 0 ? buffers[currentIndex] : null;
+    }
+
+    // Frame written before the current one, or null until two frames of the same size were stored
+    public byte[] previous() {
+        if (storedFrames < 2) return null;
+        return buffers[(currentIndex + buffers.length - 1) % buffers.length];
+    }
+
+    public ByteBuffer currentView() {
+        return storedFrames > 0 ? views[currentIndex] : null;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    public void reset() {
+        storedFrames = 0;
+    }
+}
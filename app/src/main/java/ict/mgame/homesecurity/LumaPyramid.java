@@ -0,0 +1,87 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Box-downscaled levels of a sampled luma grid: level 0 is the grid itself, each further
+ * level halves both dimensions by averaging 2x2 blocks. Level buffers are allocated once
+ * and rebuilt in place for every frame.
+ */
+public class LumaPyramid {
+    public static final int DEFAULT_LEVELS = 3;
+
+    private final int levels;
+    private final int[] levelCols;
+    private final int[] levelRows;
+    private final byte[][] data;
+    private final ByteBuffer[] views;
+
+    public LumaPyramid(int gridCols, int gridRows) {
+        this(gridCols, gridRows, DEFAULT_LEVELS);
+    }
+
+    public LumaPyramid(int gridCols, int gridRows, int levels) {
+        int scale = 1 << (levels - 1);
+        if (levels < 1 || gridCols % scale != 0 || gridRows % scale != 0) {
+            throw new IllegalArgumentException("Grid " + gridCols + "x" + gridRows
+                    + " cannot be halved " + (levels - 1) + " times");
+        }
+        this.levels = levels;
+        this.levelCols = new int[levels];
+        this.levelRows = new int[levels];
+        this.data = new byte[levels][];
+        this.views = new ByteBuffer[levels];
+        for (int l = 0; l < levels; l++) {
+            levelCols[l] = gridCols >> l;
+            levelRows[l] = gridRows >> l;
+            if (l > 0) {
+                data[l] = new byte[levelCols[l] * levelRows[l]];
+                views[l] = ByteBuffer.wrap(data[l]).order(ByteOrder.nativeOrder());
+            }
+        }
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getCols(int level) {
+        return levelCols[level];
+    }
+
+    public int getRows(int level) {
+        return levelRows[level];
+    }
+
+    public ByteBuffer getLevelView(int level) {
+        return views[level];
+    }
+
+    /**
+     * Uses {@code base} as level 0 (it is not copied) and rebuilds the coarser levels.
+     * {@code base} must be a heap buffer starting at offset 0, such as the views
+     * handed out by {@link LumaFrameStore}.
+     */
+    public void build(ByteBuffer base) {
+        views[0] = base;
+        data[0] = base.array();
+        for (int l = 1; l < levels; l++) {
+            byte[] src = data[l - 1];
+            byte[] dst = data[l];
+            int srcCols = levelCols[l - 1];
+            int cols = levelCols[l];
+            int rows = levelRows[l];
+            int d = 0;
+            for (int y = 0; y < rows; y++) {
+                int top = 2 * y * srcCols;
+                int bottom = top + srcCols;
+                for (int x = 0; x < cols; x++, top += 2, bottom += 2) {
+                    int sum = (src[top] & 0xFF) + (src[top + 1] & 0xFF)
+                            + (src[bottom] & 0xFF) + (src[bottom + 1] & 0xFF);
+                    dst[d++] = (byte) ((sum + 2) >> 2);
+                }
+            }
+        }
+    }
+}
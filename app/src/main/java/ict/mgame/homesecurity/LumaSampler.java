@@ -0,0 +1,103 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Samples a fixed grid of luma values straight out of a Y plane buffer.
+ * Row and pixel stride are honoured, so padding bytes are never read, and every
+ * frame costs exactly {@code gridCols * gridRows} reads regardless of resolution.
+ */
+public class LumaSampler {
+    public static final int DEFAULT_GRID_COLS = 128;
+    public static final int DEFAULT_GRID_ROWS = 96;
+
+    private final int gridCols;
+    private final int gridRows;
+    private final int[] columnOffsets;
+    private final int[] rowOffsets;
+
+    private int width = -1;
+    private int height = -1;
+    private int rowStride = -1;
+    private int pixelStride = -1;
+
+    public LumaSampler() {
+        this(DEFAULT_GRID_COLS, DEFAULT_GRID_ROWS);
+    }
+
+    public LumaSampler(int gridCols, int gridRows) {
+        if (gridCols <= 0 || gridRows <= 0) {
+            throw new IllegalArgumentException("Invalid sampling grid: " + gridCols + "x" + gridRows);
+        }
+        this.gridCols = gridCols;
+        this.gridRows = gridRows;
+        this.columnOffsets = new int[gridCols];
+        this.rowOffsets = new int[gridRows];
+    }
+
+    public int getGridCols() {
+        return gridCols;
+    }
+
+    public int getGridRows() {
+        return gridRows;
+    }
+
+    public int getSampleCount() {
+        return gridCols * gridRows;
+    }
+
+    /**
+     * Reads the samples inside tiles set in {@code activeTiles} from {@code plane} into
+     * {@code out} (row-major, gridCols per row) using the geometry from the last
+     * {@link #configure} call. Samples of inactive tiles are left untouched in {@code out}
+     * and the buffer position is not changed.
+     */
+    public void sample(ByteBuffer plane, byte[] out, TileMask activeTiles) {
+        if (out.length < getSampleCount()) {
+            throw new IllegalArgumentException("Output too small: " + out.length);
+        }
+        int tileCols = activeTiles.getCols();
+        int tileRows = activeTiles.getRows();
+        if (gridCols % tileCols != 0 || gridRows % tileRows != 0) {
+            throw new IllegalArgumentException("Tile mask does not match sampling grid");
+        }
+
+        int tileWidth = gridCols / tileCols;
+        int tileHeight = gridRows / tileRows;
+        int base = plane.position();
+        for (int r = 0; r < gridRows; r++) {
+            int tileRow = r / tileHeight;
+            int rowBase = base + rowOffsets[r];
+            int o = r * gridCols;
+            for (int tc = 0; tc < tileCols; tc++) {
+                int c = tc * tileWidth;
+                int end = c + tileWidth;
+                if (!activeTiles.get(tc, tileRow)) continue;
+                for (; c < end; c++) {
+                    out[o + c] = plane.get(rowBase + columnOffsets[c]);
+                }
+            }
+        }
+    }
+
+    // Sample offsets only change with the plane geometry, so they are cached between frames
+    public void configure(int width, int height, int rowStride, int pixelStride) {
+        if (width == this.width && height == this.height
+                && rowStride == this.rowStride && pixelStride == this.pixelStride) {
+            return;
+        }
+        for (int c = 0; c < gridCols; c++) {
+            int x = (int) (((2L * c + 1) * width) / (2L * gridCols));
+            columnOffsets[c] = x * pixelStride;
+        }
+        for (int r = 0; r < gridRows; r++) {
+            int y = (int) (((2L * r + 1) * height) / (2L * gridRows));
+            rowOffsets[r] = y * rowStride;
+        }
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.pixelStride = pixelStride;
+    }
+}
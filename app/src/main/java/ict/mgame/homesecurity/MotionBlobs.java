@@ -0,0 +1,202 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Connected groups of fired tiles (8-connected), labelled in a single raster pass with
+ * union-find; bounding box, area and centroid are merged at the roots as groups join.
+ * Every array is sized for the tile grid once, so labelling a frame allocates nothing.
+ * Blobs smaller or larger than the area limits, or more elongated than the aspect limit,
+ * are kept but marked as rejected.
+ */
+public class MotionBlobs {
+    public static final int DEFAULT_MIN_AREA = 2;
+    public static final int DEFAULT_MAX_AREA = Integer.MAX_VALUE;
+    // Longest side over shortest side of the bounding box, in tiles
+    public static final double DEFAULT_MAX_ASPECT = 4.0;
+
+    private final int cols;
+    private final int rows;
+    // Union-find forest over tile indices; only meaningful for set tiles
+    private final int[] parent;
+    // Per-root statistics, indexed by tile
+    private final int[] rootMinCol;
+    private final int[] rootMinRow;
+    private final int[] rootMaxCol;
+    private final int[] rootMaxRow;
+    private final int[] rootArea;
+    private final int[] rootSumCol;
+    private final int[] rootSumRow;
+    // Compacted blobs, indexed 0 .. count-1
+    private final int[] blobRoot;
+    private final boolean[] blobAccepted;
+    private int count;
+    private int acceptedCount;
+
+    private volatile int minArea = DEFAULT_MIN_AREA;
+    private volatile int maxArea = DEFAULT_MAX_AREA;
+    private volatile double maxAspect = DEFAULT_MAX_ASPECT;
+
+    public MotionBlobs(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        int size = cols * rows;
+        parent = new int[size];
+        rootMinCol = new int[size];
+        rootMinRow = new int[size];
+        rootMaxCol = new int[size];
+        rootMaxRow = new int[size];
+        rootArea = new int[size];
+        rootSumCol = new int[size];
+        rootSumRow = new int[size];
+        blobRoot = new int[size];
+        blobAccepted = new boolean[size];
+    }
+
+    public void setFilter(int minArea, int maxArea, double maxAspect) {
+        if (minArea < 1 || maxArea < minArea || !(maxAspect >= 1)) {
+            throw new IllegalArgumentException("Invalid blob filter: area " + minArea + ".." + maxArea
+                    + ", aspect " + maxAspect);
+        }
+        this.minArea = minArea;
+        this.maxArea = maxArea;
+        this.maxAspect = maxAspect;
+    }
+
+    /**
+     * Labels the set tiles of {@code mask}, which must have this instance's shape.
+     *
+     * @return the number of blobs that passed the filter
+     */
+    public int label(TileMask mask) {
+        if (mask.getCols() != cols || mask.getRows() != rows) {
+            throw new IllegalArgumentException("Mask is " + mask.getCols() + "x" + mask.getRows()
+                    + ", expected " + cols + "x" + rows);
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int tile = row * cols + col;
+                if (!mask.get(tile)) continue;
+                parent[tile] = tile;
+                rootMinCol[tile] = col;
+                rootMaxCol[tile] = col;
+                rootMinRow[tile] = row;
+                rootMaxRow[tile] = row;
+                rootArea[tile] = 1;
+                rootSumCol[tile] = col;
+                rootSumRow[tile] = row;
+                // Already visited neighbours: west, north-west, north, north-east
+                if (col > 0 && mask.get(tile - 1)) union(tile - 1, tile);
+                if (row > 0) {
+                    int above = tile - cols;
+                    if (col > 0 && mask.get(above - 1)) union(above - 1, tile);
+                    if (mask.get(above)) union(above, tile);
+                    if (col < cols - 1 && mask.get(above + 1)) union(above + 1, tile);
+                }
+            }
+        }
+
+        count = 0;
+        acceptedCount = 0;
+        int min = minArea;
+        int max = maxArea;
+        double aspectLimit = maxAspect;
+        for (int tile = 0; tile < parent.length; tile++) {
+            if (!mask.get(tile) || parent[tile] != tile) continue;
+            int width = rootMaxCol[tile] - rootMinCol[tile] + 1;
+            int height = rootMaxRow[tile] - rootMinRow[tile] + 1;
+            double aspect = (double) Math.max(width, height) / Math.min(width, height);
+            boolean accepted = rootArea[tile] >= min && rootArea[tile] <= max && aspect <= aspectLimit;
+            blobRoot[count] = tile;
+            blobAccepted[count] = accepted;
+            count++;
+            if (accepted) acceptedCount++;
+        }
+        return acceptedCount;
+    }
+
+    public void clear() {
+        count = 0;
+        acceptedCount = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public boolean isAccepted(int blob) {
+        return blobAccepted[blob];
+    }
+
+    // Number of tiles in the blob
+    public int getArea(int blob) {
+        return rootArea[blobRoot[blob]];
+    }
+
+    // Bounding box in tiles, inclusive
+    public int getLeft(int blob) {
+        return rootMinCol[blobRoot[blob]];
+    }
+
+    public int getTop(int blob) {
+        return rootMinRow[blobRoot[blob]];
+    }
+
+    public int getRight(int blob) {
+        return rootMaxCol[blobRoot[blob]];
+    }
+
+    public int getBottom(int blob) {
+        return rootMaxRow[blobRoot[blob]];
+    }
+
+    // Centroid as a fraction of frame width and height
+    public float getCentroidX(int blob) {
+        int root = blobRoot[blob];
+        return ((float) rootSumCol[root] / rootArea[root] + 0.5f) / cols;
+    }
+
+    public float getCentroidY(int blob) {
+        int root = blobRoot[blob];
+        return ((float) rootSumRow[root] / rootArea[root] + 0.5f) / rows;
+    }
+
+    // Index of the largest accepted blob, or -1 if none passed the filter
+    public int getLargestAccepted() {
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            if (blobAccepted[i] && (best < 0 || getArea(i) > getArea(best))) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int find(int tile) {
+        while (parent[tile] != tile) {
+            // Path halving
+            parent[tile] = parent[parent[tile]];
+            tile = parent[tile];
+        }
+        return tile;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) return;
+        // Keep the lower index as root so roots are found in raster order
+        int root = Math.min(rootA, rootB);
+        int other = Math.max(rootA, rootB);
+        parent[other] = root;
+        rootMinCol[root] = Math.min(rootMinCol[root], rootMinCol[other]);
+        rootMinRow[root] = Math.min(rootMinRow[root], rootMinRow[other]);
+        rootMaxCol[root] = Math.max(rootMaxCol[root], rootMaxCol[other]);
+        rootMaxRow[root] = Math.max(rootMaxRow[root], rootMaxRow[other]);
+        rootArea[root] += rootArea[other];
+        rootSumCol[root] += rootSumCol[other];
+        rootSumRow[root] += rootSumRow[other];
+    }
+}
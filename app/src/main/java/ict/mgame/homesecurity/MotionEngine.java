@@ -0,0 +1,314 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Platform-independent motion detector working on raw luma planes.
+ * {@link #process} must always be called from the same thread; the configuration
+ * setters may be called from any thread and take effect on the next frame.
+ */
+public class MotionEngine {
+    // Used until the adaptive threshold has seen enough windows to estimate sensor noise, and its floor
+    public static final double MOTION_THRESHOLD = 15.0;
+    public static final int MOTION_WINDOW_SAMPLES = 3;
+    // Tiles are refined on finer pyramid levels once their coarse score passes this share of the threshold
+    private static final double REFINE_THRESHOLD_RATIO = 0.5;
+    // Frames whose mean score passes this share of the threshold are checked for a global lighting change
+    private static final double LIGHTING_CHECK_RATIO = 0.5;
+
+    public enum DetectorMode {
+        // Diff each frame against the one before it
+        FRAME_DIFFERENCE,
+        // Diff each frame against a running-average background
+        BACKGROUND_MODEL
+    }
+
+    private final DetectorMode detectorMode;
+    private final LumaFrameStore frameStore = new LumaFrameStore();
+    private final BackgroundModel backgroundModel = new BackgroundModel();
+    private final AdaptiveThreshold motionThreshold = new AdaptiveThreshold(MOTION_THRESHOLD);
+    private final MotionResult result = new MotionResult();
+    private LumaSampler lumaSampler = new LumaSampler();
+    private TileMotionGrid tileGrid = new TileMotionGrid(
+            LumaSampler.DEFAULT_GRID_COLS, LumaSampler.DEFAULT_GRID_ROWS);
+    private final MotionBlobs blobs = new MotionBlobs(
+            TileMotionGrid.DEFAULT_TILE_COLS, TileMotionGrid.DEFAULT_TILE_ROWS);
+    // Pyramids for the two frames in frameStore, plus one for the background reference
+    private final LumaPyramid[] framePyramids = new LumaPyramid[2];
+    private LumaPyramid referencePyramid;
+    // Reference mapped through the fitted gain and offset, only built when the lighting changed
+    private final IlluminationCompensator illumination = new IlluminationCompensator();
+    private LumaPyramid compensatedPyramid;
+    private byte[] compensatedReference = new byte[0];
+    private ByteBuffer compensatedView;
+    private int framePyramidIndex = 0;
+    private int analysisWidth = -1;
+    private int analysisHeight = -1;
+    private int motionSampleCount = 0;
+
+    private volatile int motionWindowSamples = MOTION_WINDOW_SAMPLES;
+    // Written from any thread, applied on the processing thread at the start of the next frame
+    private volatile TileMotionGrid pendingTileGrid;
+    private volatile TileMask[] pendingZones;
+    private volatile boolean resetRequested = false;
+    private volatile AnalysisMetrics metrics;
+    // When sampling of the current frame finished
+    private long sampledNanos;
+
+    public MotionEngine() {
+        this(DetectorMode.FRAME_DIFFERENCE);
+    }
+
+    public MotionEngine(DetectorMode detectorMode) {
+        this.detectorMode = detectorMode;
+        createPyramids();
+    }
+
+    public DetectorMode getDetectorMode() {
+        return detectorMode;
+    }
+
+    // Only used in DetectorMode.BACKGROUND_MODEL
+    public void setBackgroundLearningRate(float learningRate) {
+        backgroundModel.setLearningRate(learningRate);
+    }
+
+    public void setMotionWindowSamples(int samples) {
+        if (samples <= 0) {
+            throw new IllegalArgumentException("Window must hold at least one frame: " + samples);
+        }
+        this.motionWindowSamples = samples;
+    }
+
+    // Current per-sample difference a tile must exceed to count as motion
+    public double getMotionThreshold() {
+        return motionThreshold.getThreshold();
+    }
+
+    /**
+     * Motion only counts once a connected group of fired tiles covers between {@code minTiles}
+     * and {@code maxTiles} tiles and its bounding box is no more elongated than {@code maxAspect}.
+     */
+    public void setBlobFilter(int minTiles, int maxTiles, double maxAspect) {
+        blobs.setFilter(minTiles, maxTiles, maxAspect);
+    }
+
+    public void setSamplingGrid(int gridCols, int gridRows) {
+        pendingTileGrid = new TileMotionGrid(
+                TileMotionGrid.DEFAULT_TILE_COLS, TileMotionGrid.DEFAULT_TILE_ROWS, gridCols, gridRows);
+    }
+
+    // Switches to the profile's sampling grid; the resolution itself is chosen by the camera
+    public void setAnalysisProfile(AnalysisProfile profile) {
+        setSamplingGrid(profile.getGridCols(), profile.getGridRows());
+    }
+
+    /**
+     * Limits motion detection to {@code include} (whole frame when null or empty) minus
+     * {@code exclude}. Both masks use the {@link TileMotionGrid#DEFAULT_TILE_COLS} x
+     * {@link TileMotionGrid#DEFAULT_TILE_ROWS} tile grid, see {@link #createZoneMask()}.
+     */
+    public void setMotionZones(TileMask include, TileMask exclude) {
+        pendingZones = new TileMask[] {
+                include != null ? new TileMask(include) : null,
+                exclude != null ? new TileMask(exclude) : null
+        };
+    }
+
+    public static TileMask createZoneMask() {
+        return new TileMask(TileMotionGrid.DEFAULT_TILE_COLS, TileMotionGrid.DEFAULT_TILE_ROWS);
+    }
+
+    // Luma grid sampled from the last processed frame; samples of tiles outside the zones are stale
+    public byte[] getSampledFrame() {
+        return frameStore.current();
+    }
+
+    public int getSampledCols() {
+        return tileGrid.getGridCols();
+    }
+
+    // Records SAMPLE, SCORE and DECISION timings of every processed frame; null to stop
+    public void setMetrics(AnalysisMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getSampledRows() {
+        return tileGrid.getGridRows();
+    }
+
+    // Drops the reference frame and background; the next frame starts a fresh comparison
+    public void reset() {
+        resetRequested = true;
+    }
+
+    /**
+     * Scores one luma plane. {@code plane} is read with absolute gets from its current position
+     * and is neither copied nor modified.
+     *
+     * @return the engine's reused result object, valid until the next call
+     */
+    public MotionResult process(ByteBuffer plane, int width, int height, int rowStride, int pixelStride,
+                                long timestampNanos) {
+        long startNanos = System.nanoTime();
+        applyPendingConfiguration();
+
+        // A new resolution (e.g. after switching lenses) must not be diffed against the old one
+        if (width != analysisWidth || height != analysisHeight) {
+            analysisWidth = width;
+            analysisHeight = height;
+            frameStore.reset();
+            backgroundModel.reset();
+            motionThreshold.reset();
+            tileGrid.resetWindow();
+            motionSampleCount = 0;
+        }
+
+        tileGrid.clearFiredTiles();
+        blobs.clear();
+        result.reset(timestampNanos, tileGrid.getFiredTiles(), blobs,
+                tileGrid.getTileCols() * tileGrid.getTileRows(), tileGrid.getSamplesPerTile());
+
+        byte[] currentFrame = frameStore.next(lumaSampler.getSampleCount());
+        lumaSampler.configure(width, height, rowStride, pixelStride);
+
+        LumaPyramid currentPyramid = framePyramids[framePyramidIndex];
+        LumaPyramid previousPyramid = null;
+        ByteBuffer previousBase = null;
+        if (detectorMode == DetectorMode.BACKGROUND_MODEL) {
+            previousBase = backgroundModel.getReferenceView();
+            if (previousBase != null) {
+                previousPyramid = referencePyramid;
+            }
+        } else if (frameStore.previous() != null) {
+            previousPyramid = framePyramids[framePyramidIndex ^ 1];
+        }
+        framePyramidIndex ^= 1;
+
+        double threshold = motionThreshold.getThreshold();
+        double difference = calculateMotionDifference(plane, frameStore.currentView(),
+                currentPyramid, previousPyramid, previousBase, threshold);
+        long scoredNanos = System.nanoTime();
+
+        if (previousPyramid != null) {
+            byte[] reference = detectorMode == DetectorMode.BACKGROUND_MODEL
+                    ? backgroundModel.getReference() : frameStore.previous();
+            if (difference > threshold * LIGHTING_CHECK_RATIO
+                    && illumination.estimate(reference, currentFrame, tileGrid)) {
+                double rawDifference = difference;
+                difference = rescoreCompensated(reference, currentPyramid, threshold);
+                result.setIllumination(illumination.getGain(), illumination.getOffset(),
+                        rawDifference > threshold && difference <= threshold);
+            }
+            result.setScore(difference, threshold);
+            int[] tileSad = result.tileSadArray();
+            tileGrid.copyTileSad(tileSad);
+            int peakSad = 0;
+            for (int sad : tileSad) {
+                peakSad = Math.max(peakSad, sad);
+            }
+            result.setPeakTileScore((double) peakSad / tileGrid.getSamplesPerTile());
+            motionSampleCount++;
+            if (motionSampleCount >= motionWindowSamples) {
+                // Isolated or streak-shaped groups of tiles are sensor noise, flicker or shadows
+                if (tileGrid.evaluateWindow(motionSampleCount, threshold)) {
+                    result.setMotionDetected(blobs.label(tileGrid.getFiredTiles()) > 0);
+                } else {
+                    // Learn from the quantity the threshold is applied to, the busiest tile's window
+                    // score, but only from quiet windows: motion must not raise its own threshold
+                    motionThreshold.update(tileGrid.getPeakWindowScore());
+                }
+                motionSampleCount = 0;
+            }
+        }
+        if (detectorMode == DetectorMode.BACKGROUND_MODEL) {
+            // Scored before updating so the current frame is not absorbed into its own reference
+            backgroundModel.update(currentFrame);
+        }
+
+        AnalysisMetrics m = metrics;
+        if (m != null) {
+            m.record(AnalysisMetrics.Stage.SAMPLE, sampledNanos - startNanos);
+            m.record(AnalysisMetrics.Stage.SCORE, scoredNanos - sampledNanos);
+            m.record(AnalysisMetrics.Stage.DECISION, System.nanoTime() - scoredNanos);
+        }
+        return result;
+    }
+
+    private void applyPendingConfiguration() {
+        if (resetRequested) {
+            resetRequested = false;
+            frameStore.reset();
+            backgroundModel.reset();
+            tileGrid.resetWindow();
+            motionSampleCount = 0;
+        }
+        TileMotionGrid grid = pendingTileGrid;
+        if (grid != null) {
+            pendingTileGrid = null;
+            grid.setZones(tileGrid.getActiveTiles(), null);
+            tileGrid = grid;
+            lumaSampler = new LumaSampler(grid.getGridCols(), grid.getGridRows());
+            createPyramids();
+            frameStore.reset();
+            backgroundModel.reset();
+            motionSampleCount = 0;
+        }
+        TileMask[] zones = pendingZones;
+        if (zones != null) {
+            pendingZones = null;
+            tileGrid.setZones(zones[0], zones[1]);
+            // Newly enabled tiles hold stale samples, so start over from a fresh reference frame
+            frameStore.reset();
+            backgroundModel.reset();
+            tileGrid.resetWindow();
+            motionSampleCount = 0;
+        }
+    }
+
+    private void createPyramids() {
+        int levels = tileGrid.getPyramidLevels();
+        for (int i = 0; i < framePyramids.length; i++) {
+            framePyramids[i] = new LumaPyramid(tileGrid.getGridCols(), tileGrid.getGridRows(), levels);
+        }
+        referencePyramid = new LumaPyramid(tileGrid.getGridCols(), tileGrid.getGridRows(), levels);
+        compensatedPyramid = new LumaPyramid(tileGrid.getGridCols(), tileGrid.getGridRows(), levels);
+        framePyramidIndex = 0;
+    }
+
+    /**
+     * Scores {@code current} again, against {@code reference} mapped through the fitted
+     * illumination change, replacing the frame's first score in the window.
+     */
+    private double rescoreCompensated(byte[] reference, LumaPyramid current, double threshold) {
+        int length = reference.length;
+        if (compensatedReference.length != length) {
+            compensatedReference = new byte[length];
+            compensatedView = ByteBuffer.wrap(compensatedReference).order(ByteOrder.nativeOrder());
+        }
+        illumination.apply(reference, compensatedReference, length);
+        compensatedPyramid.build(compensatedView);
+        tileGrid.discardFrame();
+        return tileGrid.accumulate(compensatedPyramid, current, threshold * REFINE_THRESHOLD_RATIO);
+    }
+
+    /**
+     * Samples {@code plane} into {@code frame}, builds {@code current} on it and scores it
+     * against {@code previous} (when not null): per-tile SAD, coarsest level first. Masked
+     * tiles are skipped entirely and quiet tiles never reach the full sampling grid.
+     */
+    private double calculateMotionDifference(ByteBuffer plane, ByteBuffer frame, LumaPyramid current,
+                                             LumaPyramid previous, ByteBuffer previousBase,
+                                             double threshold) {
+        double refineThreshold = threshold * REFINE_THRESHOLD_RATIO;
+        lumaSampler.sample(plane, frame.array(), tileGrid.getActiveTiles());
+        current.build(frame);
+        sampledNanos = System.nanoTime();
+        if (previous == null) return 0;
+        if (previousBase != null) {
+            previous.build(previousBase);
+        }
+        return tileGrid.accumulate(previous, current, refineThreshold);
+    }
+}
@@ -0,0 +1,182 @@
+package ict.mgame.homesecurity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Long-running record of where motion happens, one counter per motion tile. Each scored frame
+ * adds the amount by which a tile's difference exceeded the motion threshold, taken from the
+ * per-tile SADs the engine already computed; every decay period all counters lose a fixed
+ * share so old activity fades over days. Used from the analysis thread only.
+ */
+public class MotionHeatmap {
+    public static final long DEFAULT_DECAY_PERIOD_NANOS = 3_600_000_000_000L;
+    // Counters keep 7/8 of their value per decay period
+    public static final int DEFAULT_DECAY_SHIFT = 3;
+    // Fractional bits of the per-frame excess, so faint but frequent motion still registers
+    private static final int FRACTION_BITS = 4;
+    private static final int MAX_HEAT = Integer.MAX_VALUE / 2;
+    // "HSHM"
+    private static final int MAGIC = 0x4853484D;
+    private static final int VERSION = 1;
+
+    private final int cols;
+    private final int rows;
+    private final int[] heat;
+    private long decayPeriodNanos = DEFAULT_DECAY_PERIOD_NANOS;
+    private int decayShift = DEFAULT_DECAY_SHIFT;
+    private long lastDecayNanos;
+    private boolean started = false;
+
+    public MotionHeatmap(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        this.heat = new int[cols * rows];
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void setDecay(long periodNanos, int shift) {
+        if (periodNanos <= 0 || shift < 1 || shift > 16) {
+            throw new IllegalArgumentException("Invalid heatmap decay");
+        }
+        this.decayPeriodNanos = periodNanos;
+        this.decayShift = shift;
+    }
+
+    // Adds one scored frame; results with a different tile layout are ignored
+    public void accumulate(MotionResult result) {
+        if (!result.isScored() || result.getTileCount() != heat.length) return;
+        long now = result.getTimestampNanos();
+        if (!started) {
+            started = true;
+            lastDecayNanos = now;
+        } else if (now - lastDecayNanos >= decayPeriodNanos) {
+            decay();
+            lastDecayNanos = now;
+        }
+
+        // SAD above threshold * samples, in 1/16 of a grey level per sample
+        double scale = (double) (1 << FRACTION_BITS) / result.getSamplesPerTile();
+        double limit = result.getThreshold() * result.getSamplesPerTile();
+        for (int tile = 0; tile < heat.length; tile++) {
+            int sad = result.getTileSad(tile);
+            if (sad > limit) {
+                int excess = (int) ((sad - limit) * scale);
+                heat[tile] = Math.min(MAX_HEAT, heat[tile] + excess);
+            }
+        }
+    }
+
+    public void decay() {
+        for (int tile = 0; tile < heat.length; tile++) {
+            heat[tile] -= heat[tile] >> decayShift;
+        }
+    }
+
+    public int get(int col, int row) {
+        return heat[row * cols + col];
+    }
+
+    public int getMax() {
+        int max = 0;
+        for (int value : heat) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    // Raw counters, row-major
+    public void copyTo(int[] dst) {
+        System.arraycopy(heat, 0, dst, 0, heat.length);
+    }
+
+    /**
+     * Renders the map as {@code cols x rows} ARGB pixels, transparent where nothing happened
+     * and moving from translucent yellow to opaque red towards the busiest tile.
+     */
+    public void toArgb(int[] dst) {
+        int max = getMax();
+        for (int tile = 0; tile < heat.length; tile++) {
+            int level = max == 0 ? 0 : (int) ((long) heat[tile] * 255 / max);
+            int alpha = level == 0 ? 0 : 64 + level * 3 / 4;
+            int green = 255 - level;
+            dst[tile] = (alpha << 24) | (0xFF << 16) | (green << 8);
+        }
+    }
+
+    /**
+     * Tiles at or above {@code fraction} of the busiest tile, e.g. as a starting point
+     * for an exclusion zone over a tree or a TV.
+     */
+    public TileMask toMask(double fraction) {
+        TileMask mask = new TileMask(cols, rows);
+        int max = getMax();
+        if (max == 0) return mask;
+        double limit = fraction * max;
+        for (int tile = 0; tile < heat.length; tile++) {
+            if (heat[tile] > 0 && heat[tile] >= limit) {
+                mask.set(tile, true);
+            }
+        }
+        return mask;
+    }
+
+    public void clear() {
+        Arrays.fill(heat, 0);
+    }
+
+    /**
+     * Writes {@code values} (a {@link #copyTo} snapshot) as: magic "HSHM", version, cols, rows,
+     * then each counter as an unsigned LEB128 varint. Mostly quiet maps take a few hundred bytes.
+     */
+    public static void write(OutputStream out, int cols, int rows, int[] values) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort(cols);
+        data.writeShort(rows);
+        for (int i = 0; i < cols * rows; i++) {
+            int value = values[i];
+            while ((value & ~0x7F) != 0) {
+                data.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data.writeByte(value);
+        }
+        data.flush();
+    }
+
+    // Replaces the counters with a snapshot written by write(); false if it does not match this map
+    public boolean read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readShort() != VERSION
+                || data.readShort() != cols || data.readShort() != rows) {
+            return false;
+        }
+        int[] values = new int[heat.length];
+        for (int i = 0; i < values.length; i++) {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = data.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && shift < 35);
+            values[i] = Math.max(0, Math.min(MAX_HEAT, value));
+        }
+        System.arraycopy(values, 0, heat, 0, heat.length);
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Folds per-window motion detections into incidents: one start when motion first appears and
+ * one end once the scene has been quiet for the quiet period plus the cooldown. Driven by frame
+ * timestamps, so it must be updated from the analysis thread for every delivered frame.
+ */
+public class MotionIncidentTracker {
+    public static final long DEFAULT_QUIET_NANOS = 3_000_000_000L;
+    public static final long DEFAULT_COOLDOWN_NANOS = 5_000_000_000L;
+
+    public enum State {
+        IDLE,
+        // Motion seen once, incident started
+        TRIGGERED,
+        // Motion seen again within the same incident
+        SUSTAINED,
+        // Quiet for a while; motion now resumes the same incident instead of starting a new one
+        COOLDOWN
+    }
+
+    public interface IncidentListener {
+        // Both called on the analysis thread; incident is reused, copy anything needed after returning
+        void onIncidentStarted(Incident incident);
+        void onIncidentEnded(Incident incident);
+
+        // Motion came back during COOLDOWN and the incident continues
+        default void onIncidentResumed(Incident incident) {
+        }
+    }
+
+    public static class Incident {
+        private long id;
+        private long startNanos;
+        private long lastMotionNanos;
+        private long endNanos;
+        private int detections;
+        private double peakScore;
+
+        // Increases by one per incident
+        public long getId() {
+            return id;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getLastMotionNanos() {
+            return lastMotionNanos;
+        }
+
+        // Timestamp of the frame that closed the incident; 0 while it is open
+        public long getEndNanos() {
+            return endNanos;
+        }
+
+        public int getDetections() {
+            return detections;
+        }
+
+        public double getPeakScore() {
+            return peakScore;
+        }
+    }
+
+    private final Incident incident = new Incident();
+    private volatile long quietNanos = DEFAULT_QUIET_NANOS;
+    private volatile long cooldownNanos = DEFAULT_COOLDOWN_NANOS;
+    private volatile IncidentListener listener;
+    private State state = State.IDLE;
+    private long cooldownStartNanos;
+    private long lastTimestampNanos;
+
+    public void setListener(IncidentListener listener) {
+        this.listener = listener;
+    }
+
+    public void setTimings(long quietNanos, long cooldownNanos) {
+        if (quietNanos < 0 || cooldownNanos < 0) {
+            throw new IllegalArgumentException("Timings must not be negative");
+        }
+        this.quietNanos = quietNanos;
+        this.cooldownNanos = cooldownNanos;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Incident getIncident() {
+        return incident;
+    }
+
+    public void update(MotionResult result) {
+        update(result.isMotionDetected(), result.getScore(), result.getTimestampNanos());
+    }
+
+    public void update(boolean motionDetected, double score, long timestampNanos) {
+        lastTimestampNanos = timestampNanos;
+        if (motionDetected) {
+            onMotion(score, timestampNanos);
+            return;
+        }
+        switch (state) {
+            case TRIGGERED:
+            case SUSTAINED:
+                if (timestampNanos - incident.lastMotionNanos >= quietNanos) {
+                    state = State.COOLDOWN;
+                    cooldownStartNanos = timestampNanos;
+                }
+                break;
+            case COOLDOWN:
+                if (timestampNanos - cooldownStartNanos >= cooldownNanos) {
+                    end(timestampNanos);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Ends an open incident right away, e.g. when the camera stops delivering frames
+    public void finish() {
+        if (state != State.IDLE) {
+            end(lastTimestampNanos);
+        }
+    }
+
+    private void onMotion(double score, long timestampNanos) {
+        boolean resumed = state == State.COOLDOWN;
+        if (state == State.IDLE) {
+            incident.id++;
+            incident.startNanos = timestampNanos;
+            incident.endNanos = 0;
+            incident.detections = 0;
+            incident.peakScore = 0;
+            state = State.TRIGGERED;
+        } else {
+            state = State.SUSTAINED;
+        }
+        incident.lastMotionNanos = timestampNanos;
+        incident.detections++;
+        incident.peakScore = Math.max(incident.peakScore, score);
+
+        IncidentListener l = listener;
+        if (l != null) {
+            if (state == State.TRIGGERED) {
+                l.onIncidentStarted(incident);
+            } else if (resumed) {
+                l.onIncidentResumed(incident);
+            }
+        }
+    }
+
+    private void end(long timestampNanos) {
+        state = State.IDLE;
+        incident.endNanos = timestampNanos;
+        IncidentListener l = listener;
+        if (l != null) {
+            l.onIncidentEnded(incident);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Outcome of {@link MotionEngine#process} for one frame. The engine reuses a single
+ * instance per frame, so copy anything that has to outlive the next call.
+ */
+public class MotionResult {
+    private long timestampNanos;
+    private boolean scored;
+    private double score;
+    private double threshold;
+    private double peakTileScore;
+    private boolean lightingChange;
+    private double illuminationGain = 1.0;
+    private double illuminationOffset;
+    private boolean motionDetected;
+    private TileMask firedTiles;
+    private MotionBlobs blobs;
+    private int[] tileSad = new int[0];
+    private int samplesPerTile;
+
+    void reset(long timestampNanos, TileMask firedTiles, MotionBlobs blobs, int tileCount, int samplesPerTile) {
+        this.timestampNanos = timestampNanos;
+        this.scored = false;
+        this.score = 0;
+        this.peakTileScore = 0;
+        this.lightingChange = false;
+        this.illuminationGain = 1.0;
+        this.illuminationOffset = 0;
+        this.motionDetected = false;
+        this.firedTiles = firedTiles;
+        this.blobs = blobs;
+        this.samplesPerTile = samplesPerTile;
+        if (tileSad.length != tileCount) {
+            tileSad = new int[tileCount];
+        }
+    }
+
+    void setScore(double score, double threshold) {
+        this.scored = true;
+        this.score = score;
+        this.threshold = threshold;
+    }
+
+    void setPeakTileScore(double peakTileScore) {
+        this.peakTileScore = peakTileScore;
+    }
+
+    void setIllumination(double gain, double offset, boolean lightingChange) {
+        this.illuminationGain = gain;
+        this.illuminationOffset = offset;
+        this.lightingChange = lightingChange;
+    }
+
+    void setMotionDetected(boolean motionDetected) {
+        this.motionDetected = motionDetected;
+    }
+
+    int[] tileSadArray() {
+        return tileSad;
+    }
+
+    // Capture timestamp passed to MotionEngine.process
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    // False while the engine has no reference yet (first frame, after a reset or reconfiguration)
+    public boolean isScored() {
+        return scored;
+    }
+
+    // Mean absolute difference per sample over all active tiles
+    public double getScore() {
+        return score;
+    }
+
+    // Highest per-sample difference of any single tile in this frame
+    public double getPeakTileScore() {
+        return peakTileScore;
+    }
+
+    // Threshold a tile's windowed score had to exceed for this frame
+    public double getThreshold() {
+        return threshold;
+    }
+
+    // True on the frame that closes a window whose fired tiles form at least one accepted blob
+    public boolean isMotionDetected() {
+        return motionDetected;
+    }
+
+    // Tiles that fired in the window closed by this frame; empty otherwise
+    public TileMask getFiredTiles() {
+        return firedTiles;
+    }
+
+    // True when the frame differed mostly by a global brightness change, e.g. a light being switched
+    public boolean isLightingChange() {
+        return lightingChange;
+    }
+
+    // Gain and offset the reference was mapped through before differencing; 1 and 0 when not compensated
+    public double getIlluminationGain() {
+        return illuminationGain;
+    }
+
+    public double getIlluminationOffset() {
+        return illuminationOffset;
+    }
+
+    // Connected groups of fired tiles, including the ones the blob filter rejected
+    public MotionBlobs getBlobs() {
+        return blobs;
+    }
+
+    public int getTileCount() {
+        return tileSad.length;
+    }
+
+    // Grid samples per tile; a tile's SAD divided by this is its mean difference per sample
+    public int getSamplesPerTile() {
+        return samplesPerTile;
+    }
+
+    // SAD of one tile for this frame, scaled to full sampling grid resolution
+    public int getTileSad(int tile) {
+        return tileSad[tile];
+    }
+}
@@ -0,0 +1,210 @@
+package ict.mgame.homesecurity;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the last few seconds of downscaled luma frames so an alert can show what happened
+ * before motion was detected. Frames live in one preallocated direct buffer used as a ring;
+ * {@link #freeze()} copies them in order into an equally sized export buffer, which
+ * {@link #encode} then writes out on a background thread while recording carries on.
+ * The ring and export buffer together never exceed the configured byte budget.
+ */
+public class PreMotionBuffer {
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    public static final long DEFAULT_DURATION_NANOS = 5_000_000_000L;
+    public static final double DEFAULT_FPS = 5.0;
+    // "HSPM" followed by the format version
+    private static final int MAGIC = 0x4853504D;
+    private static final int VERSION = 1;
+
+    private final int maxBytes;
+    private volatile long durationNanos = DEFAULT_DURATION_NANOS;
+    private volatile double fps = DEFAULT_FPS;
+
+    private ByteBuffer ring;
+    private ByteBuffer export;
+    private long[] ringTimestamps = new long[0];
+    private long[] exportTimestamps = new long[0];
+    private int slots;
+    private int frameLength = -1;
+    private int cols;
+    private int rows;
+    private int head;
+    private int count;
+    private long lastOfferNanos;
+
+    // Set while the export buffer holds a frozen clip that has not been encoded yet
+    private final AtomicBoolean exportBusy = new AtomicBoolean(false);
+    private int exportCount;
+    private int exportCols;
+    private int exportRows;
+
+    public PreMotionBuffer() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public PreMotionBuffer(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Keeps up to {@code durationNanos} of history sampled at no more than {@code fps} frames
+     * per second, fewer if that does not fit the budget. Takes effect on the next frame size
+     * change or {@link #reset()}.
+     */
+    public void setWindow(long durationNanos, double fps) {
+        if (durationNanos <= 0 || !(fps > 0)) {
+            throw new IllegalArgumentException("Invalid pre-motion window");
+        }
+        this.durationNanos = durationNanos;
+        this.fps = fps;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    // Frames the ring can hold for the current frame size; 0 before the first frame
+    public int getCapacity() {
+        return slots;
+    }
+
+    public int getFrameCount() {
+        return count;
+    }
+
+    /**
+     * Records a {@code cols x rows} frame unless one was kept less than 1/fps ago. Copies into
+     * the ring without allocating; buffers are only (re)allocated when the frame size changes.
+     */
+    public void offer(byte[] frame, int cols, int rows, long timestampNanos) {
+        int length = cols * rows;
+        if (length != frameLength || cols != this.cols) {
+            allocate(cols, rows);
+        }
+        if (slots == 0) return;
+        if (count > 0 && timestampNanos - lastOfferNanos < (long) (1e9 / fps)) return;
+
+        ring.position(head * frameLength);
+        ring.put(frame, 0, frameLength);
+        ringTimestamps[head] = timestampNanos;
+        lastOfferNanos = timestampNanos;
+        head = (head + 1) % slots;
+        if (count < slots) count++;
+    }
+
+    /**
+     * Copies the recorded frames, oldest first, into the export buffer. Call on the thread
+     * that offers frames.
+     *
+     * @return false if there is nothing recorded or the previous clip is still being encoded
+     */
+    public boolean freeze() {
+        if (count == 0 || !exportBusy.compareAndSet(false, true)) return false;
+        // Sized with the ring; only replaced here, once no clip is being encoded from it
+        if (export == null || export.capacity() < slots * frameLength) {
+            export = ByteBuffer.allocateDirect(slots * frameLength);
+        }
+        if (exportTimestamps.length < slots) {
+            exportTimestamps = new long[slots];
+        }
+        int oldest = (head - count + slots) % slots;
+        export.clear();
+        for (int i = 0; i < count; i++) {
+            int slot = (oldest + i) % slots;
+            ring.limit((slot + 1) * frameLength).position(slot * frameLength);
+            export.put(ring);
+            ring.clear();
+            exportTimestamps[i] = ringTimestamps[slot];
+        }
+        export.flip();
+        exportCount = count;
+        exportCols = cols;
+        exportRows = rows;
+        return true;
+    }
+
+    public boolean hasFrozenClip() {
+        return exportBusy.get();
+    }
+
+    /**
+     * Writes the frozen clip to {@code out} as a GZIP stream and frees the export buffer.
+     * Safe to call from any thread after {@link #freeze()} returned true. Format, big endian:
+     * magic "HSPM", version, cols, rows, frame count, per-frame timestamps relative to the
+     * first (nanoseconds), then the first frame followed by each frame's byte-wise delta
+     * to the one before it.
+     */
+    public void encode(OutputStream out) throws IOException {
+        if (!exportBusy.get()) {
+            throw new IllegalStateException("No frozen clip to encode");
+        }
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+            DataOutputStream data = new DataOutputStream(gzip);
+            data.writeInt(MAGIC);
+            data.writeShort(VERSION);
+            data.writeShort(exportCols);
+            data.writeShort(exportRows);
+            data.writeInt(exportCount);
+            for (int i = 0; i < exportCount; i++) {
+                data.writeLong(exportTimestamps[i] - exportTimestamps[0]);
+            }
+            int length = exportCols * exportRows;
+            byte[] chunk = new byte[length];
+            byte[] previous = new byte[length];
+            for (int i = 0; i < exportCount; i++) {
+                export.position(i * length);
+                export.get(chunk, 0, length);
+                for (int p = 0; p < length; p++) {
+                    byte value = chunk[p];
+                    // Still background mostly repeats, so deltas are mostly zero and compress well
+                    chunk[p] = (byte) (value - previous[p]);
+                    previous[p] = value;
+                }
+                data.write(chunk, 0, length);
+            }
+            data.flush();
+            gzip.finish();
+        } finally {
+            exportBusy.set(false);
+        }
+    }
+
+    // Drops a frozen clip without encoding it
+    public void discardFrozenClip() {
+        exportBusy.set(false);
+    }
+
+    // Forgets recorded frames, e.g. after a camera switch
+    public void reset() {
+        frameLength = -1;
+        count = 0;
+    }
+
+    private void allocate(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        frameLength = cols * rows;
+        head = 0;
+        count = 0;
+        int wanted = (int) Math.max(1, Math.ceil(durationNanos / 1e9 * fps));
+        // Half the budget for the ring, half for the export copy
+        int fitting = maxBytes / 2 / frameLength;
+        slots = Math.min(wanted, fitting);
+        if (slots == 0) {
+            ring = null;
+            return;
+        }
+        ring = ByteBuffer.allocateDirect(slots * frameLength);
+        ringTimestamps = new long[slots];
+    }
+}
@@ -0,0 +1,129 @@
+package ict.mgame.homesecurity;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns raw gray OV7670 frames into Bitmaps for display without per-frame garbage. A few
+ * mutable bitmaps are reused in turn and filled through one reused ARGB buffer and a
+ * 256-entry gray lookup table. A bitmap goes back to the pool only once the frame after it
+ * has been shown, so the one on screen is never overwritten. When every bitmap is still on
+ * its way to the screen the frame is dropped rather than queued.
+ */
+public class RawFrameDecoder {
+    // One on screen, one posted to the main thread, one being filled
+    private static final int POOL_SIZE = 3;
+    private static final int FREE = 0;
+    private static final int BUSY = 1;
+
+    private static final int[] GRAY_TO_ARGB = new int[256];
+
+    static {
+        for (int g = 0; g < 256; g++) {
+            GRAY_TO_ARGB[g] = 0xFF000000 | (g << 16) | (g << 8) | g;
+        }
+    }
+
+    public interface FrameSink {
+        // Main thread; the bitmap is reused once the next frame has been shown
+        void onFrame(Bitmap bitmap);
+    }
+
+    private class Slot implements Runnable {
+        final AtomicInteger state = new AtomicInteger(FREE);
+        Bitmap bitmap;
+
+        // Main thread: show this frame, then release the one it replaces
+        @Override
+        public void run() {
+            sink.onFrame(bitmap);
+            onShown(this);
+        }
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Slot[] slots = new Slot[POOL_SIZE];
+    private final FrameSink sink;
+    // Decoder thread only
+    private int[] pixels = new int[0];
+    private volatile long droppedFrames;
+    // Main thread only
+    private Slot shown;
+
+    public RawFrameDecoder(FrameSink sink) {
+        this.sink = sink;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    // Frames dropped because the main thread had not caught up
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Converts {@code width * height} gray bytes from {@code data[offset]} and posts the
+     * bitmap to the sink. Always called from the same thread.
+     */
+    public void decode(byte[] data, int offset, int width, int height) {
+        Slot slot = acquire();
+        if (slot == null) {
+            droppedFrames++;
+            return;
+        }
+        try {
+            fill(slot, data, offset, width, height);
+        } catch (RuntimeException e) {
+            slot.state.set(FREE);
+            throw e;
+        }
+        mainHandler.post(slot);
+    }
+
+    private void fill(Slot slot, byte[] data, int offset, int width, int height) {
+        Bitmap bitmap = slot.bitmap;
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            // Free slots are not on screen, so the old bitmap can go right away
+            if (bitmap != null) bitmap.recycle();
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            slot.bitmap = bitmap;
+        }
+        int size = width * height;
+        if (pixels.length < size) {
+            pixels = new int[size];
+        }
+        int[] lut = GRAY_TO_ARGB;
+        for (int i = 0; i < size; i++) {
+            pixels[i] = lut[data[offset + i] & 0xFF];
+        }
+        // Copies into the bitmap, so the buffer is free again for the next frame
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+    }
+
+    /**
+     * Main thread: something other than a pooled frame (e.g. a JPEG) replaced the picture,
+     * so the pooled bitmap that was on screen can be reused.
+     */
+    public void onOtherFrameShown() {
+        onShown(null);
+    }
+
+    private Slot acquire() {
+        for (Slot slot : slots) {
+            if (slot.state.compareAndSet(FREE, BUSY)) return slot;
+        }
+        return null;
+    }
+
+    private void onShown(Slot slot) {
+        Slot previous = shown;
+        shown = slot;
+        if (previous != null && previous != slot) {
+            previous.state.set(FREE);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Motion detection on the grayscale OV7670 frames relayed by the Bluetooth bridge. Frames are
+ * scored straight from the received bytes by a dedicated {@link MotionEngine}, and detections
+ * are folded into incidents exactly like the phone camera's. Fed from the Bluetooth thread.
+ */
+public class RemoteMotionDetector {
+    // 160x120 frames, 4:3 like the phone's low-power grid so tiles stay 4x4 samples
+    public static final int GRID_COLS = 64;
+    public static final int GRID_ROWS = 48;
+
+    private final MotionEngine motionEngine = new MotionEngine();
+    private final MotionIncidentTracker incidentTracker = new MotionIncidentTracker();
+    private volatile boolean enabled = false;
+    private boolean wasEnabled = false;
+    // Wrapper around the parser's frame buffer, rebuilt only when that buffer changes
+    private byte[] wrappedData;
+    private ByteBuffer plane;
+    // Frame being scored, only valid during onFrame
+    private int frameOffset;
+    private int frameWidth;
+    private int frameHeight;
+
+    public RemoteMotionDetector() {
+        motionEngine.setSamplingGrid(GRID_COLS, GRID_ROWS);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setIncidentListener(MotionIncidentTracker.IncidentListener listener) {
+        incidentTracker.setListener(listener);
+    }
+
+    // Zones, thresholds and window length are configured on the engine directly
+    public MotionEngine getMotionEngine() {
+        return motionEngine;
+    }
+
+    /**
+     * Copies the gray pixels of the frame being scored, e.g. the one that started an incident.
+     * Only valid from the incident listener, which runs inside {@link #onFrame}.
+     */
+    public byte[] copyFrame() {
+        return Arrays.copyOfRange(wrappedData, frameOffset, frameOffset + frameWidth * frameHeight);
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    // Best-effort when called off the Bluetooth thread
+    public boolean isIncidentOpen() {
+        return incidentTracker.getState() != MotionIncidentTracker.State.IDLE;
+    }
+
+    /**
+     * Scores one frame of {@code width * height} gray bytes starting at {@code data[offset]}.
+     *
+     * @return the engine's reused result, or null while detection is disabled
+     */
+    public MotionResult onFrame(byte[] data, int offset, int width, int height, long timestampNanos) {
+        if (!enabled) {
+            if (wasEnabled) {
+                wasEnabled = false;
+                motionEngine.reset();
+            }
+            // Keep the clock running so an open incident still ends
+            incidentTracker.update(false, 0, timestampNanos);
+            return null;
+        }
+        wasEnabled = true;
+
+        if (data != wrappedData) {
+            wrappedData = data;
+            plane = ByteBuffer.wrap(data);
+        }
+        plane.clear();
+        plane.position(offset);
+        plane.limit(offset + width * height);
+        frameOffset = offset;
+        frameWidth = width;
+        frameHeight = height;
+        MotionResult result = motionEngine.process(plane, width, height, width, 1, timestampNanos);
+        incidentTracker.update(result);
+        return result;
+    }
+
+    // The stream is gone: close any open incident and start from scratch on the next frame
+    public void onStreamClosed() {
+        incidentTracker.finish();
+        motionEngine.reset();
+    }
+}
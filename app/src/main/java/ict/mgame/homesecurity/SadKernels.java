@@ -0,0 +1,59 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sum of absolute differences between two runs of unsigned luma bytes.
+ * {@link #sad} loads 8 bytes per {@code long} and works on all lanes at once
+ * (SIMD within a register); {@link #sadScalar} is the byte-at-a-time reference.
+ */
+public final class SadKernels {
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BYTES = 0x00FF00FF00FF00FFL;
+    private static final long LOW_SHORTS = 0x0000FFFF0000FFFFL;
+    // Each 16-bit lane gains at most 2 * 255 per word, so 128 words fit before folding
+    private static final int WORDS_PER_FOLD = 128;
+
+    private SadKernels() {}
+
+    public static int sad(ByteBuffer a, int aOffset, ByteBuffer b, int bOffset, int length) {
+        long total = 0;
+        int i = 0;
+        while (length - i >= 8) {
+            long lanes = 0;
+            int words = Math.min((length - i) >>> 3, WORDS_PER_FOLD);
+            for (int w = 0; w < words; w++, i += 8) {
+                long diff = absDiff(a.getLong(aOffset + i), b.getLong(bOffset + i));
+                lanes += (diff & LOW_BYTES) + ((diff >>> 8) & LOW_BYTES);
+            }
+            long pairs = (lanes & LOW_SHORTS) + ((lanes >>> 16) & LOW_SHORTS);
+            total += (pairs & 0xFFFFFFFFL) + (pairs >>> 32);
+        }
+        for (; i < length; i++) {
+            total += Math.abs((a.get(aOffset + i) & 0xFF) - (b.get(bOffset + i) & 0xFF));
+        }
+        return (int) total;
+    }
+
+    public static int sadScalar(ByteBuffer a, int aOffset, ByteBuffer b, int bOffset, int length) {
+        int total = 0;
+        for (int i = 0; i < length; i++) {
+            total += Math.abs((a.get(aOffset + i) & 0xFF) - (b.get(bOffset + i) & 0xFF));
+        }
+        return total;
+    }
+
+    /**
+     * Per-byte |x - y| of eight unsigned lanes, without carries crossing lanes.
+     */
+    static long absDiff(long x, long y) {
+        // Lane-wise x - y mod 256: the high bit of every lane is handled separately so
+        // the subtraction of the low seven bits can never borrow from the next lane
+        long d = ((x | HIGH_BITS) - (y & ~HIGH_BITS)) ^ ((x ^ ~y) & HIGH_BITS);
+        // High bit set in lanes where x < y (borrow out of the lane)
+        long borrow = ((~x & y) | (~(x ^ y) & d)) & HIGH_BITS;
+        long ones = borrow >>> 7;
+        // Negate the borrowing lanes: ~d + 1 stays below 256 because d != 0 there
+        return (d ^ (ones * 0xFF)) + ones;
+    }
+}
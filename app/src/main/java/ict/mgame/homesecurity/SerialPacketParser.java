@@ -0,0 +1,283 @@
+package ict.mgame.homesecurity;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits the byte stream from the Arduino bridge into text lines, raw OV7670 frames and JPEG
+ * images. A resumable state machine looks at every byte exactly once, so reads can be
+ * fragmented anywhere and a frame arriving in many small reads costs no more than one big
+ * read. Packet bodies are copied straight into reused hand-off buffers. Free of Android
+ * dependencies so it can be exercised off-device.
+ *
+ * <p>Raw frame header, as sent by the OV7670 UART firmware: {@code AA 04 21 WL HL X C}, where
+ * WL/HL are the low bytes of width and height, X holds their top two bits each plus the
+ * pixel format in the high nibble, and C is the XOR of the four bytes from 21 to X.
+ */
+public class SerialPacketParser {
+    // Frame size the bridge firmware sends by default
+    public static final int RAW_FRAME_WIDTH = 160;
+    public static final int RAW_FRAME_HEIGHT = 120;
+    public static final int PIXEL_FORMAT_RGB565 = 0x01;
+    public static final int PIXEL_FORMAT_GRAYSCALE = 0x02;
+    // Largest frame (640x480 gray) and JPEG the firmware produces
+    private static final int MAX_FRAME_BYTES = 640 * 480;
+    private static final int MAX_JPEG_BYTES = 256 * 1024;
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int RAW_HEADER_SIZE = 7;
+    private static final int COMMAND_NEW_FRAME = 0x21;
+
+    public interface PacketListener {
+        // Gray pixels start at data[offset], width * height bytes; data is reused after returning
+        void onRawFrame(byte[] data, int offset, int width, int height);
+        // data is reused after returning
+        void onJpeg(byte[] data, int offset, int length);
+        // One trimmed, non-empty line without its line break; data is reused after returning
+        void onTextLine(byte[] data, int offset, int length);
+    }
+
+    public enum State {
+        // Between packets
+        SCAN,
+        // Inside a text line, up to the next newline
+        TEXT_LINE,
+        // Collecting the 7 header bytes of a raw frame
+        RAW_HEADER,
+        // Copying frame pixels
+        RAW_PAYLOAD,
+        // Copying JPEG data up to FF D9
+        JPEG_BODY
+    }
+
+    private final PacketListener listener;
+    private State state = State.SCAN;
+    // An FF was seen between packets; FF D8 starts a JPEG
+    private boolean markerPending = false;
+
+    private final int[] header = new int[RAW_HEADER_SIZE];
+    private int headerLength;
+
+    private byte[] frame = new byte[RAW_FRAME_WIDTH * RAW_FRAME_HEIGHT];
+    private int frameWidth;
+    private int frameHeight;
+    // Payload bytes still expected, and whether they are kept (gray) or skipped (RGB565)
+    private int payloadRemaining;
+    private int payloadLength;
+    private boolean payloadKept;
+
+    private byte[] jpeg = new byte[16 * 1024];
+    private int jpegLength;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean lineOverflow;
+
+    public SerialPacketParser(PacketListener listener) {
+        this.listener = listener;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void feed(byte[] chunk, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            switch (state) {
+                case RAW_PAYLOAD:
+                    i = copyPayload(chunk, i, end);
+                    break;
+                case JPEG_BODY:
+                    i = copyJpeg(chunk, i, end);
+                    break;
+                default:
+                    onByte(chunk[i++] & 0xFF);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Blocks in {@code in.read()} and feeds whatever arrives until the stream ends. Closing the
+     * stream from another thread makes the pending read throw, which ends the loop.
+     */
+    public void readFrom(InputStream in, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+            feed(buffer, 0, read);
+        }
+    }
+
+    // Bytes of an unfinished packet or line held so far
+    public int getBufferedSize() {
+        switch (state) {
+            case TEXT_LINE:
+                return lineLength;
+            case RAW_HEADER:
+                return headerLength;
+            case RAW_PAYLOAD:
+                return RAW_HEADER_SIZE + payloadLength - payloadRemaining;
+            case JPEG_BODY:
+                return jpegLength;
+            default:
+                return markerPending ? 1 : 0;
+        }
+    }
+
+    private void onByte(int b) {
+        switch (state) {
+            case SCAN:
+                if (markerPending) {
+                    markerPending = false;
+                    if (b == 0xD8) {
+                        startJpeg();
+                        return;
+                    }
+                }
+                if (b == 0xAA) {
+                    startHeader();
+                } else if (b == 0xFF) {
+                    markerPending = true;
+                } else if (b != '\n' && b != '\r') {
+                    state = State.TEXT_LINE;
+                    appendLine(b);
+                }
+                break;
+            case TEXT_LINE:
+                if (b == '\n') {
+                    endLine();
+                } else if (b == 0xAA || b == 0xFF) {
+                    // Binary packets may follow text without a newline in between
+                    endLine();
+                    onByte(b);
+                } else {
+                    appendLine(b);
+                }
+                break;
+            case RAW_HEADER:
+                header[headerLength++] = b;
+                if (!headerValidSoFar()) {
+                    // Not a frame after all; resync on this byte
+                    state = State.SCAN;
+                    onByte(b);
+                } else if (headerLength == RAW_HEADER_SIZE) {
+                    startPayload();
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected state " + state);
+        }
+    }
+
+    private void startHeader() {
+        state = State.RAW_HEADER;
+        header[0] = 0xAA;
+        headerLength = 1;
+    }
+
+    private boolean headerValidSoFar() {
+        switch (headerLength) {
+            case 2:
+                return header[1] == 0x04;
+            case 3:
+                return header[2] == COMMAND_NEW_FRAME;
+            case RAW_HEADER_SIZE:
+                return (header[2] ^ header[3] ^ header[4] ^ header[5]) == header[6];
+            default:
+                return true;
+        }
+    }
+
+    private void startPayload() {
+        int extra = header[5];
+        frameWidth = header[3] | ((extra & 0x03) << 8);
+        frameHeight = header[4] | ((extra & 0x0C) << 6);
+        int format = extra >> 4;
+        int pixels = frameWidth * frameHeight;
+        if (pixels == 0) {
+            state = State.SCAN;
+            return;
+        }
+        payloadKept = format != PIXEL_FORMAT_RGB565 && pixels <= MAX_FRAME_BYTES;
+        payloadLength = format == PIXEL_FORMAT_RGB565 ? 2 * pixels : pixels;
+        payloadRemaining = payloadLength;
+        if (payloadKept && frame.length < pixels) {
+            frame = new byte[pixels];
+        }
+        state = State.RAW_PAYLOAD;
+    }
+
+    private int copyPayload(byte[] chunk, int i, int end) {
+        int n = Math.min(payloadRemaining, end - i);
+        if (payloadKept) {
+            System.arraycopy(chunk, i, frame, payloadLength - payloadRemaining, n);
+        }
+        payloadRemaining -= n;
+        if (payloadRemaining == 0) {
+            state = State.SCAN;
+            if (payloadKept) {
+                listener.onRawFrame(frame, 0, frameWidth, frameHeight);
+            }
+        }
+        return i + n;
+    }
+
+    private void startJpeg() {
+        state = State.JPEG_BODY;
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpegLength = 2;
+    }
+
+    private int copyJpeg(byte[] chunk, int i, int end) {
+        while (i < end) {
+            byte b = chunk[i++];
+            if (jpegLength == jpeg.length) {
+                if (jpegLength >= MAX_JPEG_BYTES) {
+                    // Runaway image without an end marker
+                    state = State.SCAN;
+                    return i;
+                }
+                byte[] grown = new byte[Math.min(2 * jpeg.length, MAX_JPEG_BYTES)];
+                System.arraycopy(jpeg, 0, grown, 0, jpegLength);
+                jpeg = grown;
+            }
+            jpeg[jpegLength++] = b;
+            if (b == (byte) 0xD9 && jpeg[jpegLength - 2] == (byte) 0xFF) {
+                state = State.SCAN;
+                listener.onJpeg(jpeg, 0, jpegLength);
+                return i;
+            }
+        }
+        return i;
+    }
+
+    private void appendLine(int b) {
+        if (lineLength == line.length) {
+            if (lineLength >= MAX_LINE_LENGTH) {
+                // Too long to be telemetry; drop it up to the next newline
+                lineOverflow = true;
+                return;
+            }
+            byte[] grown = new byte[2 * line.length];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        line[lineLength++] = (byte) b;
+    }
+
+    // Hands the line to the listener trimmed, unless it is empty or was cut short
+    private void endLine() {
+        int from = 0;
+        int to = lineLength;
+        while (from < to && (line[from] & 0xFF) <= ' ') from++;
+        while (to > from && (line[to - 1] & 0xFF) <= ' ') to--;
+        if (to > from && !lineOverflow) {
+            listener.onTextLine(line, from, to - from);
+        }
+        lineLength = 0;
+        lineOverflow = false;
+        state = State.SCAN;
+    }
+}
@@ -0,0 +1,119 @@
+package ict.mgame.homesecurity;
+
+/**
+ * Remembers a 64-bit difference hash (dHash) of every snapshot taken during the current
+ * incident so near-identical follow-up captures can be skipped. The hash is computed from
+ * the sampled luma grid the motion engine already holds: the grid is averaged into 9x8
+ * cells and each bit records whether a cell is darker than its right-hand neighbour,
+ * which survives noise, small shifts and exposure changes. Used from the analysis thread only.
+ */
+public class SnapshotDeduplicator {
+    // Bits that may differ for two snapshots to still count as the same scene
+    public static final int DEFAULT_MAX_DISTANCE = 10;
+    public static final int DEFAULT_CAPACITY = 32;
+    private static final int HASH_COLS = 9;
+    private static final int HASH_ROWS = 8;
+
+    private final long[] hashes;
+    private final int[] captures;
+    private int count;
+    private int next;
+    private volatile int maxDistance = DEFAULT_MAX_DISTANCE;
+
+    public SnapshotDeduplicator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Keeps the latest capacity hashes per incident
+    public SnapshotDeduplicator(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        hashes = new long[capacity];
+        captures = new int[capacity];
+    }
+
+    public void setMaxDistance(int maxDistance) {
+        if (maxDistance < 0 || maxDistance > 64) {
+            throw new IllegalArgumentException("Invalid Hamming distance: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Difference hash of a {@code cols x rows} luma grid; bit {@code row * 8 + col} is set when
+     * cell {@code col} is darker than cell {@code col + 1}. Allocates nothing.
+     */
+    public static long dHash(byte[] frame, int cols, int rows) {
+        if (cols < HASH_COLS || rows < HASH_ROWS) {
+            throw new IllegalArgumentException("Grid too small to hash: " + cols + "x" + rows);
+        }
+        long hash = 0;
+        int bit = 0;
+        for (int r = 0; r < HASH_ROWS; r++) {
+            int y0 = r * rows / HASH_ROWS;
+            int y1 = (r + 1) * rows / HASH_ROWS;
+            long previousSum = 0;
+            int previousCount = 1;
+            for (int c = 0; c < HASH_COLS; c++) {
+                int x0 = c * cols / HASH_COLS;
+                int x1 = (c + 1) * cols / HASH_COLS;
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    int i = y * cols + x0;
+                    for (int end = y * cols + x1; i < end; i++) {
+                        sum += frame[i] & 0xFF;
+                    }
+                }
+                int cellCount = (x1 - x0) * (y1 - y0);
+                // Means compared by cross-multiplying, cells differ in size by a sample or so
+                if (c > 0) {
+                    if (previousSum * cellCount < sum * previousCount) hash |= 1L << bit;
+                    bit++;
+                }
+                previousSum = sum;
+                previousCount = cellCount;
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * @return the capture number of the closest remembered snapshot within the maximum
+     * distance of {@code hash}, or -1 if this scene has not been captured yet
+     */
+    public int findSimilar(long hash) {
+        int limit = maxDistance;
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int d = distance(hashes[i], hash);
+            if (d <= limit && d < bestDistance) {
+                best = captures[i];
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    public void add(long hash, int capture) {
+        hashes[next] = hash;
+        captures[next] = capture;
+        next = (next + 1) % hashes.length;
+        if (count < hashes.length) count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // Call when a new incident starts
+    public void clear() {
+        count = 0;
+        next = 0;
+    }
+}
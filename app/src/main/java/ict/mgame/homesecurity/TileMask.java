@@ -0,0 +1,140 @@
+package ict.mgame.homesecurity;
+
+import java.util.Arrays;
+
+/**
+ * Bit set over a grid of motion tiles (row-major, one bit per tile).
+ * Used both for include/exclude zones and for reporting which tiles saw motion.
+ */
+public class TileMask {
+    private final int cols;
+    private final int rows;
+    private final long[] words;
+
+    public TileMask(int cols, int rows) {
+        if (cols <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("Invalid tile grid: " + cols + "x" + rows);
+        }
+        this.cols = cols;
+        this.rows = rows;
+        this.words = new long[(cols * rows + 63) >>> 6];
+    }
+
+    public TileMask(TileMask other) {
+        this(other.cols, other.rows);
+        copyFrom(other);
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int size() {
+        return cols * rows;
+    }
+
+    public boolean get(int col, int row) {
+        return get(row * cols + col);
+    }
+
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void set(int col, int row, boolean value) {
+        set(row * cols + col, value);
+    }
+
+    public void set(int index, boolean value) {
+        if (value) {
+            words[index >>> 6] |= 1L << index;
+        } else {
+            words[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Sets every tile overlapping the normalized rectangle (0..1 in both axes).
+     */
+    public void setRegion(float left, float top, float right, float bottom, boolean value) {
+        int c0 = clamp((int) Math.floor(left * cols), cols);
+        int c1 = clamp((int) Math.ceil(right * cols) - 1, cols);
+        int r0 = clamp((int) Math.floor(top * rows), rows);
+        int r1 = clamp((int) Math.ceil(bottom * rows) - 1, rows);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                set(c, r, value);
+            }
+        }
+    }
+
+    public void setAll() {
+        Arrays.fill(words, -1L);
+        int tail = size() & 63;
+        if (tail != 0) {
+            words[words.length - 1] = (1L << tail) - 1;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    public void copyFrom(TileMask other) {
+        checkSameShape(other);
+        System.arraycopy(other.words, 0, words, 0, words.length);
+    }
+
+    public void andNot(TileMask other) {
+        checkSameShape(other);
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean sameShape(TileMask other) {
+        return other != null && other.cols == cols && other.rows == rows;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TileMask)) return false;
+        TileMask other = (TileMask) o;
+        return sameShape(other) && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * cols + rows) + Arrays.hashCode(words);
+    }
+
+    private void checkSameShape(TileMask other) {
+        if (!sameShape(other)) {
+            throw new IllegalArgumentException("Tile grid mismatch");
+        }
+    }
+
+    private static int clamp(int value, int limit) {
+        return Math.max(0, Math.min(limit - 1, value));
+    }
+}
@@ -0,0 +1,198 @@
+package ict.mgame.homesecurity;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits the sampled luma grid into tiles and keeps per-tile SAD (sum of absolute
+ * differences) scores. Tiles outside the active zone mask are neither sampled nor scored.
+ */
+public class TileMotionGrid {
+    public static final int DEFAULT_TILE_COLS = 16;
+    public static final int DEFAULT_TILE_ROWS = 12;
+
+    private final int tileCols;
+    private final int tileRows;
+    private final int gridCols;
+    private final int gridRows;
+    private final int tileWidth;
+    private final int tileHeight;
+
+    private final TileMask activeTiles;
+    private final TileMask firedTiles;
+    private final int[] tileSad;
+    private final long[] windowSad;
+    private double peakWindowScore;
+
+    public TileMotionGrid(int gridCols, int gridRows) {
+        this(DEFAULT_TILE_COLS, DEFAULT_TILE_ROWS, gridCols, gridRows);
+    }
+
+    public TileMotionGrid(int tileCols, int tileRows, int gridCols, int gridRows) {
+        if (tileCols <= 0 || tileRows <= 0 || gridCols % tileCols != 0 || gridRows % tileRows != 0) {
+            throw new IllegalArgumentException("Sampling grid " + gridCols + "x" + gridRows
+                    + " is not divisible into " + tileCols + "x" + tileRows + " tiles");
+        }
+        this.tileCols = tileCols;
+        this.tileRows = tileRows;
+        this.gridCols = gridCols;
+        this.gridRows = gridRows;
+        this.tileWidth = gridCols / tileCols;
+        this.tileHeight = gridRows / tileRows;
+
+        int tileCount = tileCols * tileRows;
+        this.activeTiles = new TileMask(tileCols, tileRows);
+        this.activeTiles.setAll();
+        this.firedTiles = new TileMask(tileCols, tileRows);
+        this.tileSad = new int[tileCount];
+        this.windowSad = new long[tileCount];
+    }
+
+    public int getTileCols() {
+        return tileCols;
+    }
+
+    public int getTileRows() {
+        return tileRows;
+    }
+
+    public int getGridCols() {
+        return gridCols;
+    }
+
+    public int getGridRows() {
+        return gridRows;
+    }
+
+    public int getSamplesPerTile() {
+        return tileWidth * tileHeight;
+    }
+
+    /**
+     * Restricts scoring to {@code include} (every tile when null or empty) minus {@code exclude}.
+     */
+    public void setZones(TileMask include, TileMask exclude) {
+        if (include == null || include.isEmpty()) {
+            activeTiles.setAll();
+        } else {
+            activeTiles.copyFrom(include);
+        }
+        if (exclude != null) {
+            activeTiles.andNot(exclude);
+        }
+        Arrays.fill(tileSad, 0);
+        resetWindow();
+    }
+
+    public TileMask getActiveTiles() {
+        return activeTiles;
+    }
+
+    /**
+     * Scores one frame pair and adds it to the current window. Every active tile is scored on
+     * the coarsest pyramid level and only re-scored on the next finer level while its mean
+     * per-sample difference is above {@code refineThreshold}. Tile SADs are scaled to level 0
+     * sample counts.
+     *
+     * @return mean absolute difference per sample over all active tiles
+     */
+    public double accumulate(LumaPyramid previous, LumaPyramid current, double refineThreshold) {
+        int coarsest = Math.min(previous.getLevels(), current.getLevels()) - 1;
+        long total = 0;
+        for (int tr = 0; tr < tileRows; tr++) {
+            for (int tc = 0; tc < tileCols; tc++) {
+                int tile = tr * tileCols + tc;
+                if (!activeTiles.get(tile)) continue;
+
+                int level = coarsest;
+                int sad = tileSad(previous.getLevelView(level), current.getLevelView(level), level, tc, tr);
+                while (level > 0 && sad > refineThreshold * (getSamplesPerTile() >> (2 * level))) {
+                    level--;
+                    sad = tileSad(previous.getLevelView(level), current.getLevelView(level), level, tc, tr);
+                }
+                sad <<= 2 * level;
+                tileSad[tile] = sad;
+                windowSad[tile] += sad;
+                total += sad;
+            }
+        }
+        int activeCount = activeTiles.cardinality();
+        return activeCount == 0 ? 0 : (double) total / ((long) activeCount * getSamplesPerTile());
+    }
+
+    // Number of pyramid levels the tile size allows, up to LumaPyramid.DEFAULT_LEVELS
+    public int getPyramidLevels() {
+        int levels = 1;
+        while (levels < LumaPyramid.DEFAULT_LEVELS
+                && tileWidth % (1 << levels) == 0 && tileHeight % (1 << levels) == 0) {
+            levels++;
+        }
+        return levels;
+    }
+
+    private int tileSad(ByteBuffer previous, ByteBuffer current, int level, int tc, int tr) {
+        int width = tileWidth >> level;
+        int height = tileHeight >> level;
+        int cols = gridCols >> level;
+        int sad = 0;
+        int rowStart = tr * height * cols + tc * width;
+        for (int y = 0; y < height; y++) {
+            int i = rowStart + y * cols;
+            sad += SadKernels.sad(previous, i, current, i, width);
+        }
+        return sad;
+    }
+
+    /**
+     * Closes the current window of {@code frames} frames: every active tile whose mean
+     * per-sample difference is above {@code threshold} is marked in {@link #getFiredTiles()}.
+     *
+     * @return true if at least one tile fired
+     */
+    public boolean evaluateWindow(int frames, double threshold) {
+        firedTiles.clear();
+        long peak = 0;
+        if (frames > 0) {
+            double limit = threshold * frames * getSamplesPerTile();
+            for (int tile = 0; tile < windowSad.length; tile++) {
+                if (activeTiles.get(tile)) {
+                    if (windowSad[tile] > limit) {
+                        firedTiles.set(tile, true);
+                    }
+                    peak = Math.max(peak, windowSad[tile]);
+                }
+            }
+        }
+        peakWindowScore = frames > 0 ? (double) peak / ((long) frames * getSamplesPerTile()) : 0;
+        resetWindow();
+        return !firedTiles.isEmpty();
+    }
+
+    // Highest mean per-sample difference of an active tile in the last evaluated window
+    public double getPeakWindowScore() {
+        return peakWindowScore;
+    }
+
+    public TileMask getFiredTiles() {
+        return firedTiles;
+    }
+
+    public void clearFiredTiles() {
+        firedTiles.clear();
+    }
+
+    public void copyTileSad(int[] dst) {
+        System.arraycopy(tileSad, 0, dst, 0, tileSad.length);
+    }
+
+    // Takes the last scored frame back out of the window, e.g. before scoring it again
+    public void discardFrame() {
+        for (int tile = 0; tile < windowSad.length; tile++) {
+            windowSad[tile] -= tileSad[tile];
+        }
+    }
+
+    public void resetWindow() {
+        Arrays.fill(windowSad, 0L);
+    }
+}
@@ -0,0 +1,81 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveThresholdTest {
+
+    @Test
+    public void warmup_usesInitialThreshold() {
+        AdaptiveThreshold threshold = new AdaptiveThreshold(15.0, 0.0, 0.05, 4.0, 2.0, 10);
+        for (int i = 0; i < 9; i++) {
+            threshold.update(40.0);
+            assertFalse(threshold.isWarmedUp());
+            assertEquals(15.0, threshold.getThreshold(), 0.0);
+        }
+        threshold.update(40.0);
+        assertTrue(threshold.isWarmedUp());
+        // Warm-up samples are clamped to the initial threshold like any other
+        assertEquals(15.0, threshold.getMean(), 1e-9);
+        assertEquals(17.0, threshold.getThreshold(), 1e-9);
+    }
+
+    @Test
+    public void steadyState_followsNoiseStatistics() {
+        AdaptiveThreshold threshold = new AdaptiveThreshold(100.0, 0.0, 0.02, 4.0, 1.0, 30);
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            threshold.update(20.0 + random.nextGaussian() * 2.0);
+        }
+        assertEquals(20.0, threshold.getMean(), 0.5);
+        assertEquals(2.0, threshold.getStandardDeviation(), 0.4);
+        assertEquals(28.0, threshold.getThreshold(), 2.0);
+
+        // A lasting rise in noise is learned
+        for (int i = 0; i < 5000; i++) {
+            threshold.update(26.0 + random.nextGaussian() * 2.0);
+        }
+        assertEquals(26.0, threshold.getMean(), 0.5);
+    }
+
+    @Test
+    public void outliers_areClampedToThreshold() {
+        AdaptiveThreshold threshold = new AdaptiveThreshold(100.0, 0.0, 0.02, 4.0, 1.0, 30);
+        Random random = new Random(8);
+        for (int i = 0; i < 2000; i++) {
+            threshold.update(20.0 + random.nextGaussian());
+        }
+        double before = threshold.getThreshold();
+        // A burst of motion barely moves the baseline
+        for (int i = 0; i < 5; i++) {
+            threshold.update(500.0);
+        }
+        assertTrue(threshold.getMean() <= 20.0 + 5 * 0.02 * (before - 20.0) + 0.5);
+        assertTrue(threshold.getThreshold() < before + 5.0);
+    }
+
+    @Test
+    public void quietScene_neverDropsBelowFloor() {
+        AdaptiveThreshold threshold = new AdaptiveThreshold(15.0);
+        for (int i = 0; i < 1000; i++) {
+            threshold.update(1.0);
+        }
+        assertTrue(threshold.isWarmedUp());
+        assertEquals(1.0, threshold.getMean(), 1e-6);
+        assertEquals(15.0, threshold.getThreshold(), 0.0);
+
+        // Above the floor the statistics take over again
+        for (int i = 0; i < 1000; i++) {
+            threshold.update(i % 2 == 0 ? 10.0 : 14.0);
+        }
+        assertEquals(12.0 + AdaptiveThreshold.DEFAULT_Z_SCORE * 2.0, threshold.getThreshold(), 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSmoothing_throws() {
+        new AdaptiveThreshold(15.0, 15.0, 0.0, 4.0, 8.0, 30);
+    }
+}
@@ -0,0 +1,88 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlarmControllerTest {
+    private final List<Boolean> writes = new ArrayList<>();
+    private final AlarmController alarm = new AlarmController(writes::add);
+
+    @Test
+    public void longIncident_soundsOnePulse() {
+        alarm.onIncidentStarted(0);
+        assertTrue(alarm.isOn());
+        assertEquals(AlarmController.DEFAULT_PULSE_MILLIS, alarm.getOffAtMillis());
+        alarm.onTimer(AlarmController.DEFAULT_PULSE_MILLIS - 1);
+        assertTrue(alarm.isOn());
+        alarm.onTimer(AlarmController.DEFAULT_PULSE_MILLIS);
+        assertFalse(alarm.isOn());
+
+        // The incident going on does not switch it back on; its end sends nothing more
+        alarm.onTimer(60_000);
+        alarm.onIncidentEnded(60_000);
+        assertEquals(List.of(true, false), writes);
+    }
+
+    @Test
+    public void resume_reArmsPulse() {
+        alarm.setPulseMillis(1000);
+        alarm.onIncidentStarted(0);
+        alarm.onTimer(1000);
+        alarm.onIncidentResumed(5000);
+        assertTrue(alarm.isOn());
+        assertEquals(6000, alarm.getOffAtMillis());
+        // Resuming while still on extends the pulse without another write
+        alarm.onIncidentResumed(5500);
+        assertEquals(6500, alarm.getOffAtMillis());
+        alarm.onTimer(6000);
+        assertTrue(alarm.isOn());
+        alarm.onTimer(6500);
+        assertEquals(List.of(true, false, true, false), writes);
+    }
+
+    @Test
+    public void end_stopsPulseEarly() {
+        alarm.onIncidentStarted(0);
+        alarm.onIncidentEnded(500);
+        assertFalse(alarm.isOn());
+        alarm.stop();
+        assertEquals(List.of(true, false), writes);
+    }
+
+    @Test
+    public void overlappingIncidents_stayOnUntilLastEnds() {
+        alarm.setPulseMillis(10_000);
+        // Phone camera incident, then a remote one while it is still open
+        alarm.onIncidentStarted(0);
+        alarm.onIncidentStarted(1000);
+        assertEquals(2, alarm.getOpenIncidents());
+        assertEquals(11_000, alarm.getOffAtMillis());
+
+        alarm.onIncidentEnded(2000);
+        assertTrue(alarm.isOn());
+        assertEquals(1, alarm.getOpenIncidents());
+        alarm.onIncidentEnded(3000);
+        assertFalse(alarm.isOn());
+        assertEquals(List.of(true, false), writes);
+
+        // An extra end, e.g. posted after stop(), does not go negative
+        alarm.onIncidentEnded(4000);
+        assertEquals(0, alarm.getOpenIncidents());
+        alarm.onIncidentStarted(5000);
+        alarm.onIncidentEnded(6000);
+        assertEquals(List.of(true, false, true, false), writes);
+    }
+
+    @Test
+    public void pulseEnds_evenWhileIncidentsOpen() {
+        alarm.onIncidentStarted(0);
+        alarm.onIncidentStarted(100);
+        alarm.onTimer(100 + AlarmController.DEFAULT_PULSE_MILLIS);
+        assertFalse(alarm.isOn());
+        assertEquals(2, alarm.getOpenIncidents());
+    }
+}
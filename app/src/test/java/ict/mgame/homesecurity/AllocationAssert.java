@@ -0,0 +1,32 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a hot path allocates nothing, using the JVM's per-thread allocation counter.
+ * Warm the code up before calling so buffers exist and the loop is compiled.
+ */
+final class AllocationAssert {
+    // Leaves room for the measuring calls themselves
+    private static final long MAX_BYTES = 1024;
+
+    private AllocationAssert() {
+    }
+
+    static void assertAllocationFree(Runnable body) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        long tid = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(tid);
+        body.run();
+        long allocated = threadBean.getThreadAllocatedBytes(tid) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < MAX_BYTES);
+    }
+}
@@ -0,0 +1,125 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class AnalysisMetricsTest {
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    @Test
+    public void histogram_percentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertEquals(500_500, histogram.getMeanNanos(), 1e-6);
+        assertWithin(500_000, histogram.getPercentileNanos(50));
+        assertWithin(990_000, histogram.getPercentileNanos(99));
+        assertEquals(1_000_000, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    public void histogram_bucketsAreContiguous() {
+        for (long v = 0; v < 100_000; v++) {
+            int index = LatencyHistogram.bucketIndex(v);
+            assertTrue(v <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) assertTrue(v > LatencyHistogram.bucketUpperBound(index - 1));
+        }
+        // Hour-long outliers still land in a bucket
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3_600_000_000_000L);
+        assertEquals(1, histogram.getCount());
+    }
+
+    @Test
+    public void histogram_concurrentRecordsAreNotLost() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long value = (t + 1) * 1000L;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) histogram.record(value);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(4000, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void timestampGaps_countAsDrops() throws IOException {
+        AnalysisMetrics metrics = new AnalysisMetrics();
+        long t = 0;
+        for (int i = 0; i < 30; i++) {
+            metrics.onFrameDelivered(t);
+            t += FRAME_NANOS;
+        }
+        // Two frames lost, then one
+        t += 2 * FRAME_NANOS;
+        metrics.onFrameDelivered(t);
+        t += 2 * FRAME_NANOS;
+        metrics.onFrameDelivered(t);
+        assertEquals(32, metrics.getDeliveredFrames());
+        assertEquals(3, metrics.getDroppedFrames());
+
+        metrics.record(AnalysisMetrics.Stage.SCORE, 2_000_000);
+        StringWriter out = new StringWriter();
+        metrics.dump(out);
+        assertTrue(out.toString(), out.toString().contains("dropped=3"));
+        assertTrue(out.toString(), out.toString().contains("score"));
+    }
+
+    @Test
+    public void lag_isRecordedAndDumped() throws IOException {
+        AnalysisMetrics metrics = new AnalysisMetrics();
+        metrics.onFrameFinished(1_000_000_000L, 1_045_000_000L);
+        metrics.onFrameFinished(2_000_000_000L, 2_005_000_000L);
+        // A timestamp slightly ahead of the clock counts as no lag
+        metrics.onFrameFinished(3_000_000_000L, 2_999_000_000L);
+        LatencyHistogram lag = metrics.getHistogram(AnalysisMetrics.Stage.LAG);
+        assertEquals(3, lag.getCount());
+        assertEquals(45_000_000, lag.getMaxNanos());
+        assertEquals(50_000_000 / 3.0, lag.getMeanNanos(), 1e-6);
+
+        StringWriter out = new StringWriter();
+        metrics.dump(out);
+        assertTrue(out.toString(), out.toString().contains("\nlag "));
+    }
+
+    @Test
+    public void engineWithMetrics_allocatesNothing() {
+        AnalysisMetrics metrics = new AnalysisMetrics();
+        MotionEngine engine = new MotionEngine();
+        engine.setMetrics(metrics);
+        ByteBuffer plane = ByteBuffer.allocateDirect(640 * 480);
+        for (int i = 0; i < 200; i++) {
+            engine.process(plane, 640, 480, 640, 1, i * FRAME_NANOS);
+            metrics.onFrameDelivered(i * FRAME_NANOS);
+        }
+
+        AllocationAssert.assertAllocationFree(() -> {
+            for (int i = 200; i < 400; i++) {
+                engine.process(plane, 640, 480, 640, 1, i * FRAME_NANOS);
+                metrics.onFrameDelivered(i * FRAME_NANOS);
+            }
+        });
+        assertEquals(400, metrics.getHistogram(AnalysisMetrics.Stage.DECISION).getCount());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
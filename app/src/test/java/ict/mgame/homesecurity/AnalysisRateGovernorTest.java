@@ -0,0 +1,86 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AnalysisRateGovernorTest {
+    private static final long MS = 1_000_000L;
+    private static final long FRAME_NANOS = 33 * MS;
+
+    private final MotionResult result = new MotionResult();
+
+    @Test
+    public void idleScene_isAnalysedAtIdleRate() {
+        AnalysisRateGovernor governor = new AnalysisRateGovernor();
+        int analysed = 0;
+        // Ten seconds at ~30 fps
+        for (int i = 0; i < 300; i++) {
+            long t = i * FRAME_NANOS;
+            if (governor.shouldAnalyze(t)) {
+                analysed++;
+                governor.onResult(quiet(t));
+            }
+        }
+        assertEquals(AnalysisRateGovernor.State.IDLE, governor.getState());
+        assertEquals(AnalysisRateGovernor.DEFAULT_IDLE_FPS, governor.getTargetFps(), 0.01);
+        assertTrue("analysed " + analysed, analysed >= 19 && analysed <= 21);
+        assertEquals(300 - analysed, governor.getSkippedFrames());
+    }
+
+    @Test
+    public void risingScore_rampsToFullRateThenDecays() {
+        AnalysisRateGovernor governor = new AnalysisRateGovernor();
+        governor.setDecay(2000 * MS, 500 * MS);
+        long t = 0;
+        assertTrue(governor.shouldAnalyze(t));
+        governor.onResult(rising(t));
+        assertEquals(AnalysisRateGovernor.State.ACTIVE, governor.getState());
+
+        // Every frame is analysed while active
+        for (int i = 1; i <= 30; i++) {
+            t = i * FRAME_NANOS;
+            assertTrue(governor.shouldAnalyze(t));
+            governor.onResult(quiet(t));
+        }
+        assertEquals(AnalysisRateGovernor.State.ACTIVE, governor.getState());
+
+        // Quiet period passes, then the interval doubles per step until idle
+        long previousInterval = 0;
+        boolean sawDecaying = false;
+        for (int i = 31; i < 400 && governor.getState() != AnalysisRateGovernor.State.IDLE; i++) {
+            t = i * FRAME_NANOS;
+            if (governor.shouldAnalyze(t)) {
+                governor.onResult(quiet(t));
+            }
+            if (governor.getState() == AnalysisRateGovernor.State.DECAYING) {
+                sawDecaying = true;
+                assertTrue(governor.getIntervalNanos() >= previousInterval);
+                previousInterval = governor.getIntervalNanos();
+            }
+        }
+        assertTrue(sawDecaying);
+        assertEquals(AnalysisRateGovernor.State.IDLE, governor.getState());
+
+        t += FRAME_NANOS * 20;
+        assertTrue(governor.shouldAnalyze(t));
+        governor.onResult(rising(t));
+        assertEquals(0, governor.getIntervalNanos());
+        assertTrue(governor.shouldAnalyze(t + FRAME_NANOS));
+    }
+
+    private MotionResult quiet(long t) {
+        return frame(t, 1.0);
+    }
+
+    private MotionResult rising(long t) {
+        return frame(t, 12.0);
+    }
+
+    private MotionResult frame(long t, double peak) {
+        result.reset(t, null, null, 0, 64);
+        result.setScore(peak / 4, 15.0);
+        result.setPeakTileScore(peak);
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class EnvLineParserTest {
+    private final EnvLineParser parser = new EnvLineParser();
+    private final EnvLineParser.Reading reading = new EnvLineParser.Reading();
+    private int soundSum;
+
+    @Test
+    public void parse_fullLine() {
+        assertTrue(parse("ENV: TEMP=21.5 HUM=40.0 SOUND=3% LIGHT=55%"));
+        assertEquals(21.5f, reading.getTemperature(), 1e-6f);
+        assertEquals(40.0f, reading.getHumidity(), 1e-6f);
+        assertEquals(3, reading.getSound());
+        assertEquals(55, reading.getLight());
+    }
+
+    @Test
+    public void parse_reorderedMissingAndUnknownKeys() {
+        assertTrue(parse("ENV:LIGHT=12% FOO=bar TEMP=-3.25C"));
+        assertTrue(reading.has(EnvLineParser.Reading.LIGHT));
+        assertTrue(reading.has(EnvLineParser.Reading.TEMPERATURE));
+        assertFalse(reading.has(EnvLineParser.Reading.HUMIDITY));
+        assertFalse(reading.has(EnvLineParser.Reading.SOUND));
+        assertEquals(12, reading.getLight());
+        // Second decimal rounds
+        assertEquals(-3.3f, reading.getTemperature(), 1e-6f);
+    }
+
+    @Test
+    public void parse_rejectsOtherLines() {
+        assertFalse(parse("Motion sensor armed"));
+        assertFalse(parse("TEMP=21.0"));
+        assertFalse(parse("ENV: TEMP= HUM=abc"));
+        assertTrue(parse("  ENV: HUM=55"));
+        assertEquals(55f, reading.getHumidity(), 1e-6f);
+    }
+
+    @Test
+    public void parse_rangeInsideLargerBuffer() {
+        byte[] bytes = "xxENV: SOUND=7%yy".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(parser.parse(bytes, 2, bytes.length - 4, reading));
+        assertEquals(7, reading.getSound());
+    }
+
+    @Test
+    public void parse_allocatesNothing() {
+        byte[] line = "ENV: TEMP=21.5 HUM=40.0 SOUND=3% LIGHT=55%".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < 20_000; i++) {
+            parser.parse(line, 0, line.length, reading);
+            soundSum += reading.getSound();
+        }
+
+        AllocationAssert.assertAllocationFree(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                parser.parse(line, 0, line.length, reading);
+                soundSum += reading.getSound();
+            }
+        });
+        assertEquals(30_000 * 3, soundSum);
+    }
+
+    private boolean parse(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        return parser.parse(bytes, 0, bytes.length, reading);
+    }
+}
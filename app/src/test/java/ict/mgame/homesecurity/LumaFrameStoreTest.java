@@ -0,0 +1,84 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class LumaFrameStoreTest {
+    private static final int FRAME_SIZE = 640 * 480;
+
+    private long checksum;
+
+    @Test
+    public void previous_isNullUntilTwoFrames() {
+        LumaFrameStore store = new LumaFrameStore();
+        assertNull(store.previous());
+        byte[] first = store.next(16);
+        assertNull(store.previous());
+        byte[] second = store.next(16);
+        assertSame(first, store.previous());
+        assertSame(second, store.current());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void buffersAreReusedAcrossFrames() {
+        LumaFrameStore store = new LumaFrameStore(3);
+        byte[] a = store.next(16);
+        byte[] b = store.next(16);
+        byte[] c = store.next(16);
+        assertSame(a, store.next(16));
+        assertSame(b, store.next(16));
+        assertSame(c, store.next(16));
+    }
+
+    @Test
+    public void sizeChangeDropsPreviousFrame() {
+        LumaFrameStore store = new LumaFrameStore();
+        store.next(16);
+        store.next(16);
+        assertNotNull(store.previous());
+        store.next(32);
+        assertNull(store.previous());
+        assertEquals(32, store.getFrameLength());
+    }
+
+    @Test
+    public void reset_dropsPreviousFrame() {
+        LumaFrameStore store = new LumaFrameStore();
+        store.next(16);
+        store.next(16);
+        store.reset();
+        store.next(16);
+        assertNull(store.previous());
+    }
+
+    @Test
+    public void steadyState_allocatesNothingPerFrame() {
+        LumaFrameStore store = new LumaFrameStore();
+        ByteBuffer plane = ByteBuffer.allocateDirect(FRAME_SIZE);
+
+        // Warm up so buffers exist and the loop is compiled
+        for (int i = 0; i < 2000; i++) {
+            checksum += copyFrame(store, plane, i);
+        }
+        // A single leaked frame would be 300 KB
+        AllocationAssert.assertAllocationFree(() -> {
+            for (int i = 0; i < 1000; i++) {
+                checksum += copyFrame(store, plane, i);
+            }
+        });
+        assertTrue(checksum != Long.MIN_VALUE);
+    }
+
+    private static long copyFrame(LumaFrameStore store, ByteBuffer plane, int frame) {
+        plane.put(frame % FRAME_SIZE, (byte) frame);
+        plane.rewind();
+        byte[] current = store.next(plane.remaining());
+        plane.get(current);
+        byte[] previous = store.previous();
+        return previous == null ? 0 : previous[frame % FRAME_SIZE] - current[0];
+    }
+}
@@ -0,0 +1,84 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class MotionBlobsTest {
+    private static final int COLS = 16;
+    private static final int ROWS = 12;
+
+    private long checksum;
+
+    @Test
+    public void diagonalTiles_formOneBlob() {
+        MotionBlobs blobs = new MotionBlobs(COLS, ROWS);
+        TileMask mask = new TileMask(COLS, ROWS);
+        mask.set(3, 2, true);
+        mask.set(4, 3, true);
+        mask.set(5, 2, true);
+        // U shape joined only at the bottom, merged late in the scan
+        mask.set(10, 5, true);
+        mask.set(10, 6, true);
+        mask.set(12, 5, true);
+        mask.set(12, 6, true);
+        mask.set(11, 7, true);
+
+        assertEquals(2, blobs.label(mask));
+        assertEquals(2, blobs.getCount());
+        assertEquals(3, blobs.getArea(0));
+        assertEquals(3, blobs.getLeft(0));
+        assertEquals(2, blobs.getTop(0));
+        assertEquals(5, blobs.getRight(0));
+        assertEquals(3, blobs.getBottom(0));
+        assertEquals(5, blobs.getArea(1));
+        assertEquals(10, blobs.getLeft(1));
+        assertEquals(12, blobs.getRight(1));
+        assertEquals(7, blobs.getBottom(1));
+        assertEquals((11 + 0.5f) / COLS, blobs.getCentroidX(1), 1e-6);
+        assertEquals((5.8f + 0.5f) / ROWS, blobs.getCentroidY(1), 1e-6);
+        assertEquals(1, blobs.getLargestAccepted());
+    }
+
+    @Test
+    public void filter_rejectsSpecksAndStreaks() {
+        MotionBlobs blobs = new MotionBlobs(COLS, ROWS);
+        TileMask mask = new TileMask(COLS, ROWS);
+        // Single tile
+        mask.set(0, 0, true);
+        // 1x8 streak
+        for (int col = 4; col < 12; col++) {
+            mask.set(col, 10, true);
+        }
+        assertEquals(0, blobs.label(mask));
+        assertEquals(2, blobs.getCount());
+        assertFalse(blobs.isAccepted(0));
+        assertFalse(blobs.isAccepted(1));
+        assertEquals(-1, blobs.getLargestAccepted());
+
+        blobs.setFilter(1, 8, 8.0);
+        assertEquals(2, blobs.label(mask));
+        blobs.setFilter(1, 4, 8.0);
+        assertEquals(1, blobs.label(mask));
+    }
+
+    @Test
+    public void label_allocatesNothing() {
+        MotionBlobs blobs = new MotionBlobs(COLS, ROWS);
+        TileMask mask = new TileMask(COLS, ROWS);
+        for (int tile = 0; tile < mask.size(); tile += 3) {
+            mask.set(tile, true);
+        }
+        for (int i = 0; i < 5000; i++) {
+            checksum += blobs.label(mask);
+        }
+
+        AllocationAssert.assertAllocationFree(() -> {
+            for (int i = 0; i < 1000; i++) {
+                checksum += blobs.label(mask);
+            }
+        });
+        assertTrue(checksum >= 0);
+    }
+}
@@ -0,0 +1,257 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MotionEngineTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // Padded rows, as delivered by many camera HALs
+    private static final int ROW_STRIDE = 704;
+    private static final long FRAME_NANOS = 33_000_000L;
+
+    @Test
+    public void staticScene_neverDetectsMotion() {
+        MotionEngine engine = new MotionEngine();
+        Random random = new Random(1);
+        for (int i = 0; i < 120; i++) {
+            MotionResult result = process(engine, noisyFrame(random, 3), i);
+            assertFalse("frame " + i, result.isMotionDetected());
+        }
+    }
+
+    @Test
+    public void firstFrame_isNotScored() {
+        MotionEngine engine = new MotionEngine();
+        MotionResult result = process(engine, noisyFrame(new Random(1), 0), 0);
+        assertFalse(result.isScored());
+        assertEquals(0, result.getTimestampNanos());
+        assertTrue(process(engine, noisyFrame(new Random(1), 0), 1).isScored());
+    }
+
+    @Test
+    public void movingBlock_firesTilesWhereItMoves() {
+        MotionEngine engine = new MotionEngine();
+        Random random = new Random(2);
+        for (int i = 0; i < 40; i++) {
+            process(engine, noisyFrame(random, 2), i);
+        }
+
+        MotionResult result = null;
+        boolean detected = false;
+        // Block moving through the bottom-right quarter of the frame
+        for (int i = 0; i < MotionEngine.MOTION_WINDOW_SAMPLES * 2 && !detected; i++) {
+            ByteBuffer frame = noisyFrame(random, 2);
+            fillRect(frame, 400 + i * 20, 300, 120, 120, 230);
+            result = process(engine, frame, 40 + i);
+            detected = result.isMotionDetected();
+        }
+
+        assertTrue(detected);
+        TileMask fired = result.getFiredTiles();
+        assertFalse(fired.isEmpty());
+        for (int tr = 0; tr < fired.getRows(); tr++) {
+            for (int tc = 0; tc < fired.getCols(); tc++) {
+                if (fired.get(tc, tr)) {
+                    assertTrue("tile " + tc + "," + tr, tc >= fired.getCols() / 2 && tr >= fired.getRows() / 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void excludedZone_isIgnored() {
+        MotionEngine engine = new MotionEngine();
+        TileMask exclude = MotionEngine.createZoneMask();
+        exclude.setRegion(0.5f, 0f, 1f, 1f, true);
+        engine.setMotionZones(null, exclude);
+
+        Random random = new Random(3);
+        for (int i = 0; i < 60; i++) {
+            ByteBuffer frame = noisyFrame(random, 2);
+            // Flicker confined to the excluded right half
+            fillRect(frame, 400, 100, 200, 200, (i & 1) == 0 ? 20 : 240);
+            assertFalse("frame " + i, process(engine, frame, i).isMotionDetected());
+        }
+    }
+
+    @Test
+    public void rowPadding_isNeverSampled() {
+        MotionEngine engine = new MotionEngine();
+        Random random = new Random(4);
+        for (int i = 0; i < 60; i++) {
+            ByteBuffer frame = noisyFrame(random, 0);
+            // Only the padding bytes change between frames
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = WIDTH; x < ROW_STRIDE; x++) {
+                    frame.put(y * ROW_STRIDE + x, (byte) random.nextInt(256));
+                }
+            }
+            MotionResult result = process(engine, frame, i);
+            assertEquals(0.0, result.getScore(), 0.0);
+            assertFalse(result.isMotionDetected());
+        }
+    }
+
+    @Test
+    public void backgroundModel_detectsObjectThatStopsMoving() {
+        MotionEngine engine = new MotionEngine(MotionEngine.DetectorMode.BACKGROUND_MODEL);
+        engine.setBackgroundLearningRate(0.01f);
+        Random random = new Random(5);
+        for (int i = 0; i < 40; i++) {
+            process(engine, noisyFrame(random, 2), i);
+        }
+        // An object appears and then stays still: frame differencing goes quiet after one window
+        boolean detectedWhileStill = false;
+        for (int i = 0; i < 12; i++) {
+            ByteBuffer frame = noisyFrame(random, 2);
+            fillRect(frame, 100, 100, 160, 160, 220);
+            MotionResult result = process(engine, frame, 40 + i);
+            if (i >= 2 * MotionEngine.MOTION_WINDOW_SAMPLES && result.isMotionDetected()) {
+                detectedWhileStill = true;
+            }
+        }
+        assertTrue(detectedWhileStill);
+    }
+
+    @Test
+    public void lightSwitch_isLightingChangeNotMotion() {
+        for (MotionEngine.DetectorMode mode : MotionEngine.DetectorMode.values()) {
+            MotionEngine engine = new MotionEngine(mode);
+            Random random = new Random(7);
+            for (int i = 0; i < 40; i++) {
+                process(engine, noisyFrame(random, 2), i);
+            }
+
+            boolean lightingChange = false;
+            for (int i = 0; i < 2 * MotionEngine.MOTION_WINDOW_SAMPLES; i++) {
+                // Lamp on: brighter and more contrast everywhere
+                ByteBuffer frame = noisyFrame(random, 2);
+                scale(frame, 1.4, 25);
+                MotionResult result = process(engine, frame, 40 + i);
+                assertFalse(mode + " frame " + i, result.isMotionDetected());
+                lightingChange |= result.isLightingChange();
+            }
+            assertTrue(mode.name(), lightingChange);
+        }
+    }
+
+    @Test
+    public void movingBlockUnderChangingLight_isStillDetected() {
+        MotionEngine engine = new MotionEngine();
+        Random random = new Random(8);
+        for (int i = 0; i < 40; i++) {
+            process(engine, noisyFrame(random, 2), i);
+        }
+        boolean detected = false;
+        for (int i = 0; i < MotionEngine.MOTION_WINDOW_SAMPLES * 2 && !detected; i++) {
+            ByteBuffer frame = noisyFrame(random, 2);
+            scale(frame, 1.0, 10 * (i + 1));
+            fillRect(frame, 100 + i * 30, 100, 120, 120, 20);
+            detected = process(engine, frame, 40 + i).isMotionDetected();
+        }
+        assertTrue(detected);
+    }
+
+    @Test
+    public void everyProfile_scoresFramesOfItsResolution() {
+        for (AnalysisProfile profile : AnalysisProfile.values()) {
+            MotionEngine engine = new MotionEngine();
+            engine.setAnalysisProfile(profile);
+            int width = profile.getWidth();
+            int height = profile.getHeight();
+            ByteBuffer frame = ByteBuffer.allocateDirect(width * height);
+            assertFalse(engine.process(frame, width, height, width, 1, 0).isScored());
+            MotionResult result = engine.process(frame, width, height, width, 1, FRAME_NANOS);
+            assertTrue(profile.name(), result.isScored());
+            assertEquals(profile.name(), 0.0, result.getScore(), 0.0);
+            assertEquals(TileMotionGrid.DEFAULT_TILE_COLS * TileMotionGrid.DEFAULT_TILE_ROWS, result.getTileCount());
+        }
+    }
+
+    @Test
+    public void sustainedMotion_keepsDetectingPastWarmup() {
+        MotionEngine engine = new MotionEngine();
+        Random random = new Random(9);
+        // Warm the threshold up on a static scene
+        int frame = 0;
+        for (; frame < 120; frame++) {
+            process(engine, noisyFrame(random, 2), frame);
+        }
+        double quietThreshold = engine.getMotionThreshold();
+
+        // Twenty seconds of someone pacing back and forth
+        int[] detectionsPerSecond = new int[20];
+        for (int i = 0; i < 20 * 30; i++, frame++) {
+            ByteBuffer image = noisyFrame(random, 2);
+            int phase = (i * 12) % 1000;
+            int left = phase < 500 ? phase : 1000 - phase;
+            fillRect(image, left, 180, 120, 160, 230);
+            if (process(engine, image, frame).isMotionDetected()) {
+                detectionsPerSecond[i / 30]++;
+            }
+        }
+        for (int second = 0; second < detectionsPerSecond.length; second++) {
+            assertTrue("second " + second, detectionsPerSecond[second] >= 5);
+        }
+        assertEquals(quietThreshold, engine.getMotionThreshold(), 1.0);
+    }
+
+    @Test
+    public void resolutionChange_dropsOpenWindow() {
+        MotionEngine engine = new MotionEngine();
+        engine.setMotionWindowSamples(6);
+        Random random = new Random(8);
+        // 36 scored frames close six windows exactly
+        for (int i = 0; i < 37; i++) {
+            process(engine, noisyFrame(random, 2), i);
+        }
+        // Half a window of motion, then the camera switches to a smaller stream
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer frame = noisyFrame(random, 2);
+            fillRect(frame, 100 + i * 60, 150, 160, 160, 240);
+            assertFalse(process(engine, frame, 37 + i).isMotionDetected());
+        }
+        for (int i = 0; i < 12; i++) {
+            MotionResult result = engine.process(noisyFrame(random, 2), WIDTH / 2, HEIGHT / 2,
+                    ROW_STRIDE, 1, (40 + i) * FRAME_NANOS);
+            assertFalse("frame " + i, result.isMotionDetected());
+        }
+    }
+
+    private static MotionResult process(MotionEngine engine, ByteBuffer frame, int index) {
+        return engine.process(frame, WIDTH, HEIGHT, ROW_STRIDE, 1, index * FRAME_NANOS);
+    }
+
+    private static ByteBuffer noisyFrame(Random random, int noise) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = 80 + (x + y) / 16 + (noise > 0 ? random.nextInt(noise + 1) : 0);
+                frame.put(y * ROW_STRIDE + x, (byte) value);
+            }
+        }
+        return frame;
+    }
+
+    private static void scale(ByteBuffer frame, double gain, int offset) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * ROW_STRIDE + x;
+                frame.put(i, (byte) Math.min(255, (int) ((frame.get(i) & 0xFF) * gain) + offset));
+            }
+        }
+    }
+
+    private static void fillRect(ByteBuffer frame, int left, int top, int width, int height, int value) {
+        for (int y = top; y < Math.min(top + height, HEIGHT); y++) {
+            for (int x = left; x < Math.min(left + width, WIDTH); x++) {
+                frame.put(y * ROW_STRIDE + x, (byte) value);
+            }
+        }
+    }
+}
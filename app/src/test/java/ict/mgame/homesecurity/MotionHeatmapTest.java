@@ -0,0 +1,95 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MotionHeatmapTest {
+    private static final int COLS = 16;
+    private static final int ROWS = 12;
+    private static final int SAMPLES = 64;
+    private static final long FRAME_NANOS = 33_000_000L;
+
+    private final MotionResult result = new MotionResult();
+
+    @Test
+    public void accumulate_addsExcessOverThreshold() {
+        MotionHeatmap heatmap = new MotionHeatmap(COLS, ROWS);
+        for (int i = 0; i < 10; i++) {
+            // Tile 5 is 10 grey levels over a threshold of 20, tile 6 stays under it
+            score(i * FRAME_NANOS, 5, 30 * SAMPLES, 6, 15 * SAMPLES);
+            heatmap.accumulate(result);
+        }
+        assertEquals(10 * 10 * 16, heatmap.get(5, 0));
+        assertEquals(0, heatmap.get(6, 0));
+        assertEquals(1600, heatmap.getMax());
+
+        TileMask mask = heatmap.toMask(0.5);
+        assertTrue(mask.get(5, 0));
+        assertFalse(mask.get(6, 0));
+    }
+
+    @Test
+    public void accumulate_decaysOncePerPeriod() {
+        MotionHeatmap heatmap = new MotionHeatmap(COLS, ROWS);
+        heatmap.setDecay(1_000_000_000L, 1);
+        score(0, 0, 30 * SAMPLES, 1, 0);
+        heatmap.accumulate(result);
+        assertEquals(160, heatmap.get(0, 0));
+
+        // A quiet frame after one period halves the counter
+        score(1_000_000_000L, 0, 0, 1, 0);
+        heatmap.accumulate(result);
+        assertEquals(80, heatmap.get(0, 0));
+        score(1_500_000_000L, 0, 0, 1, 0);
+        heatmap.accumulate(result);
+        assertEquals(80, heatmap.get(0, 0));
+    }
+
+    @Test
+    public void snapshot_roundTrips() throws IOException {
+        MotionHeatmap heatmap = new MotionHeatmap(COLS, ROWS);
+        score(0, 3, 200 * SAMPLES, 40, 100 * SAMPLES);
+        heatmap.accumulate(result);
+        int[] values = new int[COLS * ROWS];
+        heatmap.copyTo(values);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MotionHeatmap.write(out, COLS, ROWS, values);
+        // Header plus one byte per quiet tile
+        assertTrue(out.size() < 220);
+
+        MotionHeatmap restored = new MotionHeatmap(COLS, ROWS);
+        assertTrue(restored.read(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(heatmap.get(3, 0), restored.get(3, 0));
+        assertEquals(heatmap.get(8, 2), restored.get(8, 2));
+
+        MotionHeatmap other = new MotionHeatmap(8, 6);
+        assertFalse(other.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void unscoredOrMismatchedResults_areIgnored() {
+        MotionHeatmap heatmap = new MotionHeatmap(COLS, ROWS);
+        result.reset(0, null, null, COLS * ROWS, SAMPLES);
+        result.tileSadArray()[0] = 100 * SAMPLES;
+        heatmap.accumulate(result);
+        assertEquals(0, heatmap.getMax());
+
+        result.reset(0, null, null, 4, SAMPLES);
+        result.setScore(0, 20);
+        result.tileSadArray()[0] = 100 * SAMPLES;
+        heatmap.accumulate(result);
+        assertEquals(0, heatmap.getMax());
+    }
+
+    private void score(long timestampNanos, int tileA, int sadA, int tileB, int sadB) {
+        result.reset(timestampNanos, null, null, COLS * ROWS, SAMPLES);
+        result.setScore(0, 20);
+        result.tileSadArray()[tileA] = sadA;
+        result.tileSadArray()[tileB] = sadB;
+    }
+}
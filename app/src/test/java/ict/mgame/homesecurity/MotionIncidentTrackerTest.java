@@ -0,0 +1,96 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionIncidentTrackerTest {
+    private static final long MS = 1_000_000L;
+    private static final long FRAME_NANOS = 33 * MS;
+
+    private int started;
+    private int ended;
+    private int resumed;
+    private long lastEndedId;
+
+    private MotionIncidentTracker newTracker() {
+        MotionIncidentTracker tracker = new MotionIncidentTracker();
+        tracker.setTimings(1000 * MS, 2000 * MS);
+        tracker.setListener(new MotionIncidentTracker.IncidentListener() {
+            @Override
+            public void onIncidentStarted(MotionIncidentTracker.Incident incident) {
+                started++;
+            }
+
+            @Override
+            public void onIncidentEnded(MotionIncidentTracker.Incident incident) {
+                ended++;
+                lastEndedId = incident.getId();
+            }
+
+            @Override
+            public void onIncidentResumed(MotionIncidentTracker.Incident incident) {
+                resumed++;
+            }
+        });
+        return tracker;
+    }
+
+    @Test
+    public void sustainedMotion_emitsOneStartAndOneEnd() {
+        MotionIncidentTracker tracker = newTracker();
+        long t = 0;
+        // Ten seconds of motion, detected every third frame
+        for (int i = 0; i < 300; i++, t += FRAME_NANOS) {
+            tracker.update(i % 3 == 2, 20, t);
+        }
+        assertEquals(1, started);
+        assertEquals(0, ended);
+        assertEquals(MotionIncidentTracker.State.SUSTAINED, tracker.getState());
+        assertEquals(100, tracker.getIncident().getDetections());
+        assertEquals(0, resumed);
+
+        for (int i = 0; i < 200; i++, t += FRAME_NANOS) {
+            tracker.update(false, 0, t);
+        }
+        assertEquals(1, started);
+        assertEquals(1, ended);
+        assertEquals(MotionIncidentTracker.State.IDLE, tracker.getState());
+    }
+
+    @Test
+    public void motionDuringCooldown_resumesSameIncident() {
+        MotionIncidentTracker tracker = newTracker();
+        tracker.update(true, 20, 0);
+        tracker.update(false, 0, 1500 * MS);
+        assertEquals(MotionIncidentTracker.State.COOLDOWN, tracker.getState());
+
+        tracker.update(true, 30, 2000 * MS);
+        assertEquals(MotionIncidentTracker.State.SUSTAINED, tracker.getState());
+        assertEquals(1, resumed);
+        tracker.update(false, 0, 3100 * MS);
+        tracker.update(false, 0, 5200 * MS);
+        assertEquals(1, started);
+        assertEquals(1, ended);
+        assertEquals(30, tracker.getIncident().getPeakScore(), 0.0);
+        assertEquals(5200 * MS, tracker.getIncident().getEndNanos());
+
+        tracker.update(true, 20, 6000 * MS);
+        assertEquals(2, started);
+        assertEquals(2, tracker.getIncident().getId());
+        assertEquals(1, lastEndedId);
+    }
+
+    @Test
+    public void finish_endsOpenIncidentOnlyOnce() {
+        MotionIncidentTracker tracker = newTracker();
+        tracker.finish();
+        assertEquals(0, ended);
+        tracker.update(true, 20, 100 * MS);
+        tracker.update(false, 0, 200 * MS);
+        tracker.finish();
+        tracker.finish();
+        assertEquals(1, ended);
+        assertEquals(200 * MS, tracker.getIncident().getEndNanos());
+    }
+}
@@ -0,0 +1,105 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class PreMotionBufferTest {
+    private static final int COLS = 128;
+    private static final int ROWS = 96;
+    private static final long FRAME_NANOS = 33_000_000L;
+
+    @Test
+    public void capacity_isBoundedByBudget() {
+        PreMotionBuffer buffer = new PreMotionBuffer(200 * 1024);
+        buffer.offer(new byte[COLS * ROWS], COLS, ROWS, 0);
+        // 100 KB for the ring holds 8 frames of 12 KB, fewer than the 25 asked for
+        assertEquals(8, buffer.getCapacity());
+
+        buffer = new PreMotionBuffer();
+        buffer.setWindow(2_000_000_000L, 4.0);
+        buffer.offer(new byte[COLS * ROWS], COLS, ROWS, 0);
+        assertEquals(8, buffer.getCapacity());
+    }
+
+    @Test
+    public void frozenClip_decodesToLatestFramesInOrder() throws IOException {
+        PreMotionBuffer buffer = new PreMotionBuffer();
+        buffer.setWindow(1_000_000_000L, 5.0);
+        byte[] frame = new byte[COLS * ROWS];
+        // 3 s at ~30 fps; only every 200 ms is kept and the ring holds 5
+        for (int i = 0; i < 90; i++) {
+            fill(frame, i);
+            buffer.offer(frame, COLS, ROWS, i * FRAME_NANOS);
+        }
+        assertEquals(5, buffer.getFrameCount());
+        assertTrue(buffer.freeze());
+        assertFalse("export is busy until encoded", buffer.freeze());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.encode(out);
+        assertFalse(buffer.hasFrozenClip());
+        assertTrue("compressed to " + out.size(), out.size() < 5 * COLS * ROWS / 4);
+
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(0x4853504D, in.readInt());
+        assertEquals(1, in.readShort());
+        assertEquals(COLS, in.readShort());
+        assertEquals(ROWS, in.readShort());
+        int count = in.readInt();
+        assertEquals(5, count);
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = in.readLong();
+        }
+        assertEquals(0, timestamps[0]);
+        byte[] decoded = new byte[COLS * ROWS];
+        byte[] delta = new byte[COLS * ROWS];
+        int previousIndex = -1;
+        for (int f = 0; f < count; f++) {
+            in.readFully(delta);
+            for (int p = 0; p < delta.length; p++) {
+                decoded[p] += delta[p];
+            }
+            int index = decoded[0] & 0xFF;
+            assertTrue(index > previousIndex);
+            fill(frame, index);
+            assertArrayEquals(frame, decoded);
+            previousIndex = index;
+        }
+        // The newest kept frame is within 200 ms of the last offered one
+        assertTrue(previousIndex >= 89 - 6);
+    }
+
+    @Test
+    public void offer_allocatesNothing() {
+        PreMotionBuffer buffer = new PreMotionBuffer();
+        byte[] frame = new byte[COLS * ROWS];
+        for (int i = 0; i < 2000; i++) {
+            buffer.offer(frame, COLS, ROWS, i * FRAME_NANOS);
+        }
+
+        AllocationAssert.assertAllocationFree(() -> {
+            for (int i = 2000; i < 3000; i++) {
+                buffer.offer(frame, COLS, ROWS, i * FRAME_NANOS);
+            }
+        });
+    }
+
+    // Mostly static scene with a marker in the first byte and a moving bar
+    private static void fill(byte[] frame, int index) {
+        for (int p = 0; p < frame.length; p++) {
+            frame[p] = (byte) (60 + (p % COLS) / 8);
+        }
+        for (int y = 0; y < ROWS; y++) {
+            frame[y * COLS + (index % COLS)] = (byte) 250;
+        }
+        frame[0] = (byte) index;
+    }
+}
@@ -0,0 +1,107 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RemoteMotionDetectorTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    // Offset of the pixels behind the AA 04 21 header in a received packet
+    private static final int HEADER = 7;
+    private static final long FRAME_NANOS = 200_000_000L;
+
+    private int started;
+    private int ended;
+    private byte[] incidentFrame;
+    private byte[] triggeringPacket;
+    private RemoteMotionDetector detector;
+    private byte[] lastPacket;
+
+    @Test
+    public void movingObject_startsAndEndsOneIncident() {
+        RemoteMotionDetector detector = newDetector();
+        detector.setEnabled(true);
+        Random random = new Random(1);
+        long t = 0;
+        for (int i = 0; i < 40; i++, t += FRAME_NANOS) {
+            detector.onFrame(packet(random, -1), HEADER, WIDTH, HEIGHT, t);
+        }
+        assertEquals(0, started);
+
+        for (int i = 0; i < 12; i++, t += FRAME_NANOS) {
+            lastPacket = packet(random, 10 + i * 10);
+            detector.onFrame(lastPacket, HEADER, WIDTH, HEIGHT, t);
+        }
+        assertEquals(1, started);
+        assertTrue(detector.isIncidentOpen());
+        // The triggering frame, without the packet header
+        assertArrayEquals(Arrays.copyOfRange(triggeringPacket, HEADER, HEADER + WIDTH * HEIGHT), incidentFrame);
+        assertEquals(WIDTH, detector.getFrameWidth());
+        assertEquals(HEIGHT, detector.getFrameHeight());
+
+        detector.onStreamClosed();
+        assertEquals(1, ended);
+        assertFalse(detector.isIncidentOpen());
+    }
+
+    @Test
+    public void disabled_neverScores() {
+        RemoteMotionDetector detector = newDetector();
+        Random random = new Random(2);
+        for (int i = 0; i < 20; i++) {
+            assertNull(detector.onFrame(packet(random, i * 8), HEADER, WIDTH, HEIGHT, i * FRAME_NANOS));
+        }
+        assertEquals(0, started);
+    }
+
+    @Test
+    public void onFrame_allocatesNothingForReusedBuffer() {
+        RemoteMotionDetector detector = newDetector();
+        detector.setEnabled(true);
+        // The parser hands every frame over in the same buffer
+        byte[] buffer = packet(new Random(3), -1);
+        for (int i = 0; i < 200; i++) {
+            detector.onFrame(buffer, HEADER, WIDTH, HEIGHT, i * FRAME_NANOS);
+        }
+
+        AllocationAssert.assertAllocationFree(() -> {
+            for (int i = 200; i < 400; i++) {
+                detector.onFrame(buffer, HEADER, WIDTH, HEIGHT, i * FRAME_NANOS);
+            }
+        });
+    }
+
+    private RemoteMotionDetector newDetector() {
+        detector = new RemoteMotionDetector();
+        detector.setIncidentListener(new MotionIncidentTracker.IncidentListener() {
+            @Override
+            public void onIncidentStarted(MotionIncidentTracker.Incident incident) {
+                started++;
+                incidentFrame = detector.copyFrame();
+                triggeringPacket = lastPacket;
+            }
+
+            @Override
+            public void onIncidentEnded(MotionIncidentTracker.Incident incident) {
+                ended++;
+            }
+        });
+        return detector;
+    }
+
+    // A received packet with a 30x30 block at column blockLeft, or none when negative
+    private static byte[] packet(Random random, int blockLeft) {
+        byte[] data = new byte[HEADER + WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inBlock = blockLeft >= 0 && x >= blockLeft && x < blockLeft + 30 && y >= 40 && y < 70;
+                data[HEADER + y * WIDTH + x] = (byte) (inBlock ? 220 : 60 + x / 8 + random.nextInt(3));
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,64 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SadKernelsTest {
+
+    @Test
+    public void absDiff_matchesScalarForEveryBytePair() {
+        // Put each pair into a different lane so lane isolation is exercised as well
+        for (int x = 0; x < 256; x++) {
+            for (int y = 0; y < 256; y++) {
+                int lane = (x + y) & 7;
+                long packedX = ((long) x << (lane * 8)) | 0x0101010101010101L & ~(0xFFL << (lane * 8));
+                long packedY = ((long) y << (lane * 8)) | 0xFEFEFEFEFEFEFEFEL & ~(0xFFL << (lane * 8));
+                long diff = SadKernels.absDiff(packedX, packedY);
+                for (int l = 0; l < 8; l++) {
+                    int expected = l == lane ? Math.abs(x - y) : 0xFD;
+                    assertEquals("x=" + x + " y=" + y + " lane=" + l, expected, (int) (diff >>> (l * 8)) & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sad_isBitIdenticalToScalar() {
+        Random random = new Random(42);
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int length : new int[] {0, 1, 7, 8, 9, 63, 1024, 1029, 128 * 96, 640 * 480 + 3}) {
+                ByteBuffer a = randomBuffer(random, length + 5, order);
+                ByteBuffer b = randomBuffer(random, length + 5, order);
+                for (int offset = 0; offset <= 5; offset += 5) {
+                    assertEquals("length=" + length + " offset=" + offset,
+                            SadKernels.sadScalar(a, offset, b, 0, length),
+                            SadKernels.sad(a, offset, b, 0, length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sad_handlesExtremeValuesWithoutLaneOverflow() {
+        int length = 640 * 480;
+        ByteBuffer black = ByteBuffer.allocate(length);
+        ByteBuffer white = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            white.put(i, (byte) 0xFF);
+        }
+        assertEquals(255 * length, SadKernels.sad(black, 0, white, 0, length));
+        assertEquals(255 * length, SadKernels.sad(white, 0, black, 0, length));
+        assertEquals(0, SadKernels.sad(white, 0, white, 0, length));
+    }
+
+    private static ByteBuffer randomBuffer(Random random, int length, ByteOrder order) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return ByteBuffer.wrap(data).order(order);
+    }
+}
@@ -0,0 +1,171 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SerialPacketParserTest {
+
+    private static class Recorder implements SerialPacketParser.PacketListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onRawFrame(byte[] data, int offset, int width, int height) {
+            byte[] pixels = Arrays.copyOfRange(data, offset, offset + width * height);
+            events.add("frame " + width + "x" + height + " " + Arrays.hashCode(pixels));
+        }
+
+        @Override
+        public void onJpeg(byte[] data, int offset, int length) {
+            events.add("jpeg " + length + " " + Arrays.hashCode(Arrays.copyOfRange(data, offset, offset + length)));
+        }
+
+        @Override
+        public void onTextLine(byte[] data, int offset, int length) {
+            events.add("text " + new String(data, offset, length, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void mixedStream_sameEventsForAnyFragmentation() {
+        Random random = new Random(3);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        text(stream, expected, "ENV: TEMP=21.5 HUM=40.0 SOUND=3%");
+        rawFrame(stream, expected, 160, 120, random);
+        text(stream, expected, "Motion sensor armed");
+        jpeg(stream, expected, 5000, random);
+        rawFrame(stream, expected, 320, 240, random);
+        text(stream, expected, "ENV: TEMP=21.6 HUM=40.2 SOUND=2%");
+        byte[] bytes = stream.toByteArray();
+
+        // One shot, byte by byte, and random read sizes
+        assertEquals(expected, parse(bytes, new int[]{bytes.length}));
+        assertEquals(expected, parse(bytes, new int[]{1}));
+        for (int trial = 0; trial < 20; trial++) {
+            int[] sizes = new int[16];
+            for (int i = 0; i < sizes.length; i++) sizes[i] = 1 + random.nextInt(2048);
+            assertEquals(expected, parse(bytes, sizes));
+        }
+    }
+
+    @Test
+    public void frameSize_comesFromHeader() {
+        Recorder recorder = new Recorder();
+        SerialPacketParser parser = new SerialPacketParser(recorder);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        // 640 wide needs the high width bits in the format byte
+        rawFrame(stream, expected, 640, 4, new Random(1));
+        byte[] bytes = stream.toByteArray();
+        parser.feed(bytes, 0, bytes.length - 1);
+        assertEquals(SerialPacketParser.State.RAW_PAYLOAD, parser.getState());
+        assertEquals(bytes.length - 1, parser.getBufferedSize());
+        parser.feed(bytes, bytes.length - 1, 1);
+        assertEquals(expected, recorder.events);
+        assertEquals(SerialPacketParser.State.SCAN, parser.getState());
+    }
+
+    @Test
+    public void badChecksum_isNotAFrame() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        stream.write(0xAA);
+        stream.write(0x04);
+        stream.write(0x21);
+        stream.write(160);
+        stream.write(120);
+        stream.write(0x20);
+        stream.write(0x00);
+        text(stream, expected, "still in sync");
+        byte[] bytes = stream.toByteArray();
+        assertEquals(expected, parse(bytes, new int[]{3}));
+    }
+
+    @Test
+    public void rgbFrames_areSkipped() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        header(stream, 8, 2, SerialPacketParser.PIXEL_FORMAT_RGB565);
+        // 2 bytes per pixel, including text-looking bytes
+        for (int i = 0; i < 32; i++) stream.write('\n');
+        text(stream, expected, "after rgb");
+        byte[] bytes = stream.toByteArray();
+        assertEquals(expected, parse(bytes, new int[]{5}));
+    }
+
+    @Test
+    public void textWithoutNewline_endsAtPacketStart() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        write(stream, "partial");
+        expected.add("text partial");
+        jpeg(stream, expected, 100, new Random(5));
+        byte[] bytes = stream.toByteArray();
+        assertEquals(expected, parse(bytes, new int[]{7}));
+    }
+
+    private static List<String> parse(byte[] bytes, int[] readSizes) {
+        Recorder recorder = new Recorder();
+        SerialPacketParser parser = new SerialPacketParser(recorder);
+        int offset = 0;
+        for (int read = 0; offset < bytes.length; read++) {
+            int length = Math.min(readSizes[read % readSizes.length], bytes.length - offset);
+            parser.feed(bytes, offset, length);
+            offset += length;
+        }
+        return recorder.events;
+    }
+
+    private static void text(ByteArrayOutputStream stream, List<String> expected, String line) {
+        write(stream, line + "\r\n");
+        expected.add("text " + line);
+    }
+
+    private static void header(ByteArrayOutputStream stream, int width, int height, int format) {
+        int extra = ((width >> 8) & 0x03) | ((height >> 6) & 0x0C) | (format << 4);
+        stream.write(0xAA);
+        stream.write(0x04);
+        stream.write(0x21);
+        stream.write(width & 0xFF);
+        stream.write(height & 0xFF);
+        stream.write(extra);
+        stream.write(0x21 ^ (width & 0xFF) ^ (height & 0xFF) ^ extra);
+    }
+
+    private static void rawFrame(ByteArrayOutputStream stream, List<String> expected, int width, int height,
+                                 Random random) {
+        header(stream, width, height, SerialPacketParser.PIXEL_FORMAT_GRAYSCALE);
+        byte[] pixels = new byte[width * height];
+        // Full byte range, so marker bytes inside the payload must be ignored
+        random.nextBytes(pixels);
+        stream.write(pixels, 0, pixels.length);
+        expected.add("frame " + width + "x" + height + " " + Arrays.hashCode(pixels));
+    }
+
+    private static void jpeg(ByteArrayOutputStream stream, List<String> expected, int bodyLength, Random random) {
+        byte[] image = new byte[bodyLength + 4];
+        image[0] = (byte) 0xFF;
+        image[1] = (byte) 0xD8;
+        for (int i = 2; i < bodyLength + 2; i++) {
+            // Entropy-coded data never holds a bare FF
+            image[i] = (byte) random.nextInt(0xFF);
+        }
+        image[bodyLength + 2] = (byte) 0xFF;
+        image[bodyLength + 3] = (byte) 0xD9;
+        stream.write(image, 0, image.length);
+        expected.add("jpeg " + image.length + " " + Arrays.hashCode(image));
+    }
+
+    private static void write(ByteArrayOutputStream stream, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        stream.write(bytes, 0, bytes.length);
+    }
+}
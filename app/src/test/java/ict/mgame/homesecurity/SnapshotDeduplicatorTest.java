@@ -0,0 +1,80 @@
+package ict.mgame.homesecurity;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SnapshotDeduplicatorTest {
+    private static final int COLS = 128;
+    private static final int ROWS = 96;
+
+    @Test
+    public void noisyAndBrighterCopies_hashClose() {
+        byte[] scene = scene(1);
+        long hash = SnapshotDeduplicator.dHash(scene, COLS, ROWS);
+
+        Random random = new Random(7);
+        byte[] copy = new byte[scene.length];
+        for (int i = 0; i < scene.length; i++) {
+            int v = (scene[i] & 0xFF) + 20 + random.nextInt(7) - 3;
+            copy[i] = (byte) Math.max(0, Math.min(255, v));
+        }
+        assertTrue(SnapshotDeduplicator.distance(hash, SnapshotDeduplicator.dHash(copy, COLS, ROWS))
+                <= SnapshotDeduplicator.DEFAULT_MAX_DISTANCE);
+
+        long other = SnapshotDeduplicator.dHash(scene(2), COLS, ROWS);
+        assertTrue(SnapshotDeduplicator.distance(hash, other) > SnapshotDeduplicator.DEFAULT_MAX_DISTANCE);
+    }
+
+    @Test
+    public void findSimilar_returnsEarlierCapture() {
+        SnapshotDeduplicator deduplicator = new SnapshotDeduplicator();
+        long first = SnapshotDeduplicator.dHash(scene(1), COLS, ROWS);
+        long second = SnapshotDeduplicator.dHash(scene(2), COLS, ROWS);
+        assertEquals(-1, deduplicator.findSimilar(first));
+        deduplicator.add(first, 0);
+        deduplicator.add(second, 1);
+        assertEquals(0, deduplicator.findSimilar(first ^ 0b101));
+        assertEquals(1, deduplicator.findSimilar(second));
+
+        deduplicator.clear();
+        assertEquals(-1, deduplicator.findSimilar(first));
+    }
+
+    @Test
+    public void capacity_keepsLatestHashes() {
+        SnapshotDeduplicator deduplicator = new SnapshotDeduplicator(2);
+        deduplicator.setMaxDistance(0);
+        deduplicator.add(1L, 0);
+        deduplicator.add(2L, 1);
+        deduplicator.add(4L, 2);
+        assertEquals(2, deduplicator.getCount());
+        assertEquals(-1, deduplicator.findSimilar(1L));
+        assertEquals(2, deduplicator.findSimilar(4L));
+    }
+
+    // Smooth random blobs, different per seed
+    private static byte[] scene(long seed) {
+        Random random = new Random(seed);
+        double[] cx = new double[6];
+        double[] cy = new double[6];
+        for (int i = 0; i < cx.length; i++) {
+            cx[i] = random.nextDouble() * COLS;
+            cy[i] = random.nextDouble() * ROWS;
+        }
+        byte[] frame = new byte[COLS * ROWS];
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLS; x++) {
+                double v = 40;
+                for (int i = 0; i < cx.length; i++) {
+                    double d2 = (x - cx[i]) * (x - cx[i]) + (y - cy[i]) * (y - cy[i]);
+                    v += 160 * Math.exp(-d2 / 400);
+                }
+                frame[y * COLS + x] = (byte) Math.min(200, v);
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,41 @@
+// JMH benchmarks for the app's hot paths, run on the host JVM: ./gradlew :benchmark:jmh
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// Benchmarks compile the app's plain-Java classes directly; anything touching the Android SDK is left out
+val appSources = rootProject.file("app/src/main/java")
+sourceSets {
+    main {
+        java {
+            srcDir(appSources)
+            exclude { element ->
+                !element.isDirectory && element.file.readLines().any { line ->
+                    line.startsWith("import android") || line.startsWith("import androidx") ||
+                        line.startsWith("import com.google") || line.startsWith("import com.bumptech")
+                }
+            }
+        }
+    }
+}
+
+dependencies {
+    jmh(libs.jmh.core)
+    jmhAnnotationProcessor(libs.jmh.generator.annprocess)
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh
+    warmupIterations = 3
+    iterations = 5
+    fork = 1
+    // Machine-readable results, kept per release to spot regressions
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+}
@@ -0,0 +1,81 @@
+package ict.mgame.homesecurity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of {@link MotionEngine#process} for each {@link AnalysisProfile} on synthetic
+ * luma planes: a noisy static scene with a block moving across it, padded rows as delivered
+ * by most camera HALs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MotionEngineBenchmark {
+    private static final int FRAME_COUNT = 16;
+    private static final long FRAME_NANOS = 33_000_000L;
+
+    @Param
+    public AnalysisProfile profile;
+
+    @Param({"FRAME_DIFFERENCE", "BACKGROUND_MODEL"})
+    public MotionEngine.DetectorMode mode;
+
+    private MotionEngine engine;
+    private ByteBuffer[] frames;
+    private int width;
+    private int height;
+    private int rowStride;
+    private int frameIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        width = profile.getWidth();
+        height = profile.getHeight();
+        rowStride = (width + 63) / 64 * 64 + 64;
+        frames = new ByteBuffer[FRAME_COUNT];
+        Random random = new Random(42);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            frames[i] = syntheticFrame(random, i);
+        }
+        engine = new MotionEngine(mode);
+        engine.setAnalysisProfile(profile);
+        // Get past the adaptive threshold warm-up
+        for (int i = 0; i < 64; i++) {
+            process();
+        }
+    }
+
+    @Benchmark
+    public MotionResult process() {
+        int index = frameIndex++;
+        return engine.process(frames[index % FRAME_COUNT], width, height, rowStride, 1, index * FRAME_NANOS);
+    }
+
+    private ByteBuffer syntheticFrame(Random random, int index) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(rowStride * height);
+        int blockSize = height / 4;
+        int blockLeft = index * (width - blockSize) / FRAME_COUNT;
+        int blockTop = height / 3;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean inBlock = x >= blockLeft && x < blockLeft + blockSize
+                        && y >= blockTop && y < blockTop + blockSize;
+                int value = inBlock ? 220 : 80 + (x + y) / 16 + random.nextInt(4);
+                frame.put(y * rowStride + x, (byte) value);
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,54 @@
+package ict.mgame.homesecurity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The frame-difference inner loop on its own: SAD of two luma buffers, byte at a time
+ * versus eight lanes per long.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SadKernelsBenchmark {
+    // Default sampling grid, a 640x480 frame and a 1280x720 frame
+    @Param({"12288", "307200", "921600"})
+    public int length;
+
+    private ByteBuffer previous;
+    private ByteBuffer current;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        byte[] a = new byte[length];
+        byte[] b = new byte[length];
+        random.nextBytes(a);
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) (a[i] + random.nextInt(9) - 4);
+        }
+        previous = ByteBuffer.wrap(a).order(ByteOrder.nativeOrder());
+        current = ByteBuffer.wrap(b).order(ByteOrder.nativeOrder());
+    }
+
+    @Benchmark
+    public int scalar() {
+        return SadKernels.sadScalar(previous, 0, current, 0, length);
+    }
+
+    @Benchmark
+    public int swar() {
+        return SadKernels.sad(previous, 0, current, 0, length);
+    }
+}
@@ -0,0 +1,60 @@
+package ict.mgame.homesecurity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sensor history with a full window: appends from the Bluetooth thread while graphs
+ * copy the history out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorDataManagerBenchmark {
+    private SensorDataManager manager;
+    private int sample;
+
+    @Setup
+    public void setUp() {
+        manager = SensorDataManager.getInstance();
+        // Fill the history so every add also evicts the oldest point
+        for (int i = 0; i < 2000; i++) {
+            addData();
+        }
+    }
+
+    @Benchmark
+    public void addData() {
+        int i = sample++;
+        manager.addData(20 + (i % 50) * 0.1f, 45 + (i % 30) * 0.2f, i % 100, (i * 7) % 100);
+    }
+
+    @Benchmark
+    public List<SensorDataManager.SensorData> getHistory() {
+        return manager.getHistory();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedAdd() {
+        addData();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public List<SensorDataManager.SensorData> contendedGetHistory() {
+        return manager.getHistory();
+    }
+}
@@ -0,0 +1,142 @@
+package ict.mgame.homesecurity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the Bluetooth stream parser on recorded-style streams, delivered in the
+ * same 1 KB reads the connection thread uses. Scores are per whole stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerialPacketParserBenchmark {
+    private static final int READ_SIZE = 1024;
+
+    public enum Stream {
+        // ENV telemetry and status messages only
+        TEXT,
+        // Raw OV7670 frames with a telemetry line between them
+        RAW_FRAMES,
+        // JPEG snapshots
+        JPEG,
+        // Everything interleaved, as seen with the camera streaming and telemetry polling
+        MIXED
+    }
+
+    @Param
+    public Stream stream;
+
+    private byte[] recording;
+    private SerialPacketParser parser;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        recording = record(stream, new Random(11));
+        parser = new SerialPacketParser(new SerialPacketParser.PacketListener() {
+            @Override
+            public void onRawFrame(byte[] data, int offset, int width, int height) {
+                blackhole.consume(data[offset]);
+            }
+
+            @Override
+            public void onJpeg(byte[] data, int offset, int length) {
+                blackhole.consume(length);
+            }
+
+            @Override
+            public void onTextLine(byte[] data, int offset, int length) {
+                blackhole.consume(data[offset]);
+            }
+        });
+    }
+
+    @Benchmark
+    public int parse() {
+        for (int offset = 0; offset < recording.length; offset += READ_SIZE) {
+            parser.feed(recording, offset, Math.min(READ_SIZE, recording.length - offset));
+        }
+        return parser.getBufferedSize();
+    }
+
+    static byte[] record(Stream stream, Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 8; i++) {
+            switch (stream) {
+                case TEXT:
+                    for (int j = 0; j < 50; j++) {
+                        writeEnvLine(out, random);
+                    }
+                    break;
+                case RAW_FRAMES:
+                    writeRawFrame(out, random);
+                    writeEnvLine(out, random);
+                    break;
+                case JPEG:
+                    writeJpeg(out, random);
+                    break;
+                case MIXED:
+                    writeEnvLine(out, random);
+                    writeRawFrame(out, random);
+                    writeText(out, "Motion sensor armed\n");
+                    writeJpeg(out, random);
+                    writeEnvLine(out, random);
+                    break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeEnvLine(ByteArrayOutputStream out, Random random) {
+        writeText(out, String.format(Locale.US, "ENV: TEMP=%.1f HUM=%.1f SOUND=%d%% LIGHT=%d%%\r\n",
+                18 + random.nextFloat() * 10, 30 + random.nextFloat() * 40, random.nextInt(20), random.nextInt(101)));
+    }
+
+    private static void writeRawFrame(ByteArrayOutputStream out, Random random) {
+        int width = SerialPacketParser.RAW_FRAME_WIDTH;
+        int height = SerialPacketParser.RAW_FRAME_HEIGHT;
+        int format = SerialPacketParser.PIXEL_FORMAT_GRAYSCALE << 4;
+        out.write(0xAA);
+        out.write(0x04);
+        out.write(0x21);
+        out.write(width);
+        out.write(height);
+        out.write(format);
+        out.write(0x21 ^ width ^ height ^ format);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Keep clear of the AA and FF marker bytes, like a dim indoor scene
+                out.write(40 + (x + y) / 4 + random.nextInt(8));
+            }
+        }
+    }
+
+    private static void writeJpeg(ByteArrayOutputStream out, Random random) {
+        out.write(0xFF);
+        out.write(0xD8);
+        // Entropy-coded data never holds a bare FF; also stay clear of the raw frame marker
+        for (int i = 0; i < 6 * 1024; i++) {
+            out.write(random.nextInt(0xA0));
+        }
+        out.write(0xFF);
+        out.write(0xD9);
+    }
+
+    private static void writeText(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,113 @@
+package ict.mgame.homesecurity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from the bridge writing an ENV reply to the parser delivering it, over a piped stream
+ * pair standing in for the RFCOMM socket. Compares the blocking reader with the old
+ * available()/sleep(50) polling loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerialReadLatencyBenchmark {
+    private static final byte[] ENV_REPLY =
+            "ENV: TEMP=21.5 HUM=40.0 SOUND=3% LIGHT=55%\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Reader {
+        // SerialPacketParser.readFrom, as used by the connection thread
+        BLOCKING,
+        // The previous loop: available(), read what is there, else sleep 50 ms
+        POLLING
+    }
+
+    @Param
+    public Reader reader;
+
+    private PipedOutputStream socketOut;
+    private PipedInputStream socketIn;
+    private Thread readerThread;
+    private volatile boolean running;
+    private final Semaphore received = new Semaphore(0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        socketOut = new PipedOutputStream();
+        socketIn = new PipedInputStream(socketOut, 64 * 1024);
+        SerialPacketParser parser = new SerialPacketParser(new SerialPacketParser.PacketListener() {
+            @Override
+            public void onRawFrame(byte[] data, int offset, int width, int height) {
+            }
+
+            @Override
+            public void onJpeg(byte[] data, int offset, int length) {
+            }
+
+            @Override
+            public void onTextLine(byte[] data, int offset, int length) {
+                received.release();
+            }
+        });
+        running = true;
+        readerThread = new Thread(() -> {
+            byte[] buffer = new byte[1024];
+            try {
+                if (reader == Reader.BLOCKING) {
+                    parser.readFrom(socketIn, buffer);
+                } else {
+                    poll(socketIn, parser, buffer);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Pipe closed at tear-down
+            }
+        }, "serial-reader");
+        readerThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        running = false;
+        socketOut.close();
+        socketIn.close();
+        readerThread.interrupt();
+        readerThread.join();
+    }
+
+    @Benchmark
+    public void envReply() throws IOException, InterruptedException {
+        socketOut.write(ENV_REPLY);
+        // Wakes a reader blocked in read(), like bytes arriving on the socket
+        socketOut.flush();
+        received.acquire();
+    }
+
+    private void poll(InputStream in, SerialPacketParser parser, byte[] buffer)
+            throws IOException, InterruptedException {
+        while (running) {
+            int available = in.available();
+            if (available > 0) {
+                int read = in.read(buffer, 0, Math.min(available, buffer.length));
+                if (read > 0) parser.feed(buffer, 0, read);
+            } else {
+                Thread.sleep(50);
+            }
+        }
+    }
+}
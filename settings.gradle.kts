@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "HomeSecurity"
 include(":app")
+include(":benchmark")